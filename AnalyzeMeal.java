@@ -88,29 +88,13 @@ public class AnalyzeMeal {
         TableColumn lastCol = new TableColumn("Nutrition");
         lastCol.setCellValueFactory(new PropertyValueFactory<TableItem, Double>("value"));
 
-        // Initial nutrient values sum
-        Double calories = 0.0;
-        Double fat = 0.0;
-        Double carbohydrate = 0.0;
-        Double fiber = 0.0;
-        Double protein = 0.0;
-
-        // iteratively sum nutrient value of each FoodItem
-        for (FoodItem i : mealList.getAllFoodItems()){
-            calories += i.getNutrientValue("calories");
-        }
-        for (FoodItem i : mealList.getAllFoodItems()){
-            fat += i.getNutrientValue("fat");
-        }
-        for (FoodItem i : mealList.getAllFoodItems()){
-            carbohydrate += i.getNutrientValue("carbohydrate");
-        }
-        for (FoodItem i : mealList.getAllFoodItems()){
-            fiber += i.getNutrientValue("fiber");
-        }
-        for (FoodItem i : mealList.getAllFoodItems()){
-            protein += i.getNutrientValue("protein");
-        }
+        // nutrient totals are kept up to date as the meal changes
+        MealSummary summary = mealList.getSummary();
+        double calories = summary.getTotal(Nutrient.CALORIES);
+        double fat = summary.getTotal(Nutrient.FAT);
+        double carbohydrate = summary.getTotal(Nutrient.CARBOHYDRATE);
+        double fiber = summary.getTotal(Nutrient.FIBER);
+        double protein = summary.getTotal(Nutrient.PROTEIN);
 
         // store sum value into observableList so it could change dynamically
         ObservableList<TableItem> data = FXCollections.observableArrayList(
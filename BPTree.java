@@ -6,8 +6,12 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Queue;
 import java.util.Random;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
 
 /**
  * Implementation of a B+ tree to allow efficient access to
@@ -48,6 +52,131 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
     }
 
 
+    /**
+     * Bulk-loading constructor
+     *
+     * Builds the tree bottom-up instead of inserting pair by pair:
+     * the pairs are sorted by key once, packed into leaves filled to
+     * the given fraction of their capacity, and each internal level
+     * is built directly on top of the one below it.
+     *
+     * @param branchingFactor
+     * @param keys keys to be loaded, in any order
+     * @param values values matching the keys position by position
+     * @param fillFactor fraction of each node to fill, in (0, 1]
+     */
+    public BPTree(int branchingFactor, List<K> keys, List<V> values,
+        double fillFactor) {
+        this(branchingFactor);
+        if (keys.size() != values.size()) {
+            throw new IllegalArgumentException(
+                "Mismatched keys and values: " + keys.size() + ", " + values.size());
+        }
+        if (!(fillFactor > 0 && fillFactor <= 1)) {
+            throw new IllegalArgumentException(
+                "Illegal fill factor: " + fillFactor);
+        }
+        int size = keys.size();
+        if (size == 0)
+            return;
+
+        //sort the positions by key once; the sort is stable and
+        //linear when the input is already in order
+        final List<K> keyList = keys instanceof java.util.RandomAccess
+            ? keys : new ArrayList<K>(keys);
+        final List<V> valueList = values instanceof java.util.RandomAccess
+            ? values : new ArrayList<V>(values);
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> keyList.get(a).compareTo(keyList.get(b)));
+
+        //pack the sorted pairs into a linked chain of leaves
+        List<Node> level = new ArrayList<Node>();
+        int leafCount = nodeCount(size, fillCapacity(branchingFactor - 1, fillFactor));
+        LeafNode previous = null;
+        int position = 0;
+        for (int i = 0; i < leafCount; i++) {
+            LeafNode leaf = new LeafNode();
+            int end = position + share(size, leafCount, i);
+            for (; position < end; position++) {
+                leaf.keys.add(keyList.get(order[position]));
+                leaf.values.add(valueList.get(order[position]));
+            }
+            leaf.previous = previous;
+            if (previous != null)
+                previous.next = leaf;
+            previous = leaf;
+            level.add(leaf);
+        }
+
+        //build each internal level from the level below until one node is left
+        int childrenPerNode = Math.max(2, fillCapacity(branchingFactor, fillFactor));
+        while (level.size() > 1) {
+            List<Node> parents = new ArrayList<Node>();
+            //every internal node needs at least two children
+            int parentCount = Math.min(nodeCount(level.size(), childrenPerNode),
+                level.size() / 2);
+            position = 0;
+            for (int i = 0; i < parentCount; i++) {
+                InternalNode parent = new InternalNode();
+                int end = position + share(level.size(), parentCount, i);
+                parent.children.add(level.get(position++));
+                for (; position < end; position++) {
+                    Node child = level.get(position);
+                    parent.keys.add(child.getFirstLeafKey());
+                    parent.children.add(child);
+                }
+                parent.recount();
+                parents.add(parent);
+            }
+            level = parents;
+        }
+        this.root = level.get(0);
+    }
+
+
+    /**
+     * Gets the number of entries a node holds when it is filled to the
+     * given fraction of its capacity
+     *
+     * @param capacity maximum number of entries of the node
+     * @param fillFactor fraction of the node to fill
+     * @return number of entries, at least 1 and at most capacity
+     */
+    private static int fillCapacity(int capacity, double fillFactor) {
+        return Math.max(1, Math.min(capacity, (int) Math.ceil(capacity * fillFactor)));
+    }
+
+
+    /**
+     * Gets the number of nodes needed to hold the given number of
+     * entries with at most perNode entries each
+     *
+     * @param entries number of entries
+     * @param perNode entries per node
+     * @return number of nodes
+     */
+    private static int nodeCount(int entries, int perNode) {
+        return (entries + perNode - 1) / perNode;
+    }
+
+
+    /**
+     * Gets the number of entries given to the i-th of nodeCount nodes
+     * when the entries are spread evenly, so the last node is never
+     * left nearly empty
+     *
+     * @param entries number of entries
+     * @param nodeCount number of nodes
+     * @param i index of the node
+     * @return number of entries for node i
+     */
+    private static int share(int entries, int nodeCount, int i) {
+        return entries / nodeCount + (i < entries % nodeCount ? 1 : 0);
+    }
+
+
     /*
      * (non-Javadoc)
      * @see BPTreeADT#insert(java.lang.Object, java.lang.Object)
@@ -58,12 +187,73 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
     }
 
 
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#remove(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public boolean remove(K key, V value) {
+        if (key == null)
+            return false;
+        boolean removed = this.root.remove(key, value);
+        //a root left with a single child is replaced by that child
+        if (root instanceof BPTree.InternalNode 
+            && ((InternalNode) root).children.size() == 1) {
+            root = ((InternalNode) root).children.get(0);
+        }
+        return removed;
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#update(java.lang.Object, java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public boolean update(K oldKey, K newKey, V value) {
+        if (oldKey == null || newKey == null)
+            return false;
+        //find the pair among the keys equal to oldKey
+        LeafNode current = root.findLeaf(oldKey, true);
+        int slot = lowerBound(current.keys, oldKey);
+        while (current != null) {
+            if (slot == current.keys.size()) {
+                current = current.next;
+                slot = 0;
+                continue;
+            }
+            if (current.keys.get(slot).compareTo(oldKey) != 0)
+                return false;
+            if (Objects.equals(current.values.get(slot), value))
+                break;
+            slot++;
+        }
+        if (current == null)
+            return false;
+
+        //a key between its neighbours in the same leaf keeps the leaf 
+        //sorted and within its separators, so it is replaced in place
+        if (slot > 0 && slot < current.keys.size() - 1
+            && current.keys.get(slot - 1).compareTo(newKey) <= 0
+            && current.keys.get(slot + 1).compareTo(newKey) >= 0) {
+            current.keys.set(slot, newKey);
+            return true;
+        }
+        //otherwise the pair moves to where newKey belongs
+        remove(oldKey, value);
+        insert(newKey, value);
+        return true;
+    }
+
+
     /*
      * (non-Javadoc)
      * @see BPTreeADT#rangeSearch(java.lang.Object, java.lang.String)
      */
     @Override
     public List<V> rangeSearch(K key, String comparator) {
+        if (comparator == null)
+            return new ArrayList<V>();
         if (!comparator.contentEquals(">=") && 
             !comparator.contentEquals("==") && 
             !comparator.contentEquals("<=") )
@@ -72,7 +262,189 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
             return new ArrayList<V>();
         }
 
-        return root.rangeSearch(key, comparator);
+        if (comparator.contentEquals(">=")) 
+            return rangeSearch(key, true, null, false);
+        if (comparator.contentEquals("<=")) 
+            return rangeSearch(null, false, key, true);
+        return rangeSearch(key, true, key, true);
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#rangeSearch(java.lang.Object, boolean, java.lang.Object, boolean)
+     */
+    @Override
+    public List<V> rangeSearch(K lowKey, boolean lowInclusive, 
+        K highKey, boolean highInclusive) {
+        List<V> returnList = new ArrayList<V>();
+        //an inverted or empty range cannot match anything
+        if (isEmptyRange(lowKey, lowInclusive, highKey, highInclusive))
+            return returnList;
+
+        //one descent to the first matching slot
+        LeafNode current = root.findLeaf(lowKey, lowInclusive);
+        int slot = firstSlot(current.keys, lowKey, lowInclusive);
+        //then walk the leaf chain until the upper bound is passed
+        while (current != null) {
+            while (slot < current.keys.size()) {
+                if (highKey != null) {
+                    int compareValue = current.keys.get(slot).compareTo(highKey);
+                    if (compareValue > 0 || (compareValue == 0 && !highInclusive))
+                        return returnList;
+                }
+                returnList.add(current.values.get(slot));
+                slot++;
+            }
+            current = current.next;
+            slot = 0;
+        }
+        return returnList;
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#rangeSpliterator(java.lang.Object, boolean, java.lang.Object, boolean)
+     */
+    @Override
+    public Spliterator<V> rangeSpliterator(K lowKey, boolean lowInclusive, 
+        K highKey, boolean highInclusive) {
+        return new RangeSpliterator(lowKey, lowInclusive, highKey, highInclusive);
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#count(java.lang.Object, boolean, java.lang.Object, boolean)
+     */
+    @Override
+    public int count(K lowKey, boolean lowInclusive, 
+        K highKey, boolean highInclusive) {
+        if (isEmptyRange(lowKey, lowInclusive, highKey, highInclusive))
+            return 0;
+        //entries up to the upper bound minus the entries below the lower bound
+        int end = highKey == null ? root.size() : root.rank(highKey, !highInclusive);
+        int start = lowKey == null ? 0 : root.rank(lowKey, lowInclusive);
+        return end - start;
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#sum(java.lang.Object, boolean, java.lang.Object, boolean)
+     */
+    @Override
+    public double sum(K lowKey, boolean lowInclusive, 
+        K highKey, boolean highInclusive) {
+        double sum = 0;
+        if (isEmptyRange(lowKey, lowInclusive, highKey, highInclusive))
+            return sum;
+        //keys of any type are allowed here, so sums are not kept in the
+        //nodes and the range is walked instead
+        LeafNode current = root.findLeaf(lowKey, lowInclusive);
+        int slot = firstSlot(current.keys, lowKey, lowInclusive);
+        while (current != null) {
+            while (slot < current.keys.size()) {
+                K key = current.keys.get(slot);
+                if (highKey != null) {
+                    int compareValue = key.compareTo(highKey);
+                    if (compareValue > 0 || (compareValue == 0 && !highInclusive))
+                        return sum;
+                }
+                if (!(key instanceof Number))
+                    throw new UnsupportedOperationException("keys are not numbers");
+                sum += ((Number) key).doubleValue();
+                slot++;
+            }
+            current = current.next;
+            slot = 0;
+        }
+        return sum;
+    }
+
+
+    /**
+     * Checks whether no key can lie between the two bounds
+     * 
+     * @param lowKey lower bound, or null for no lower bound
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @param highKey upper bound, or null for no upper bound
+     * @param highInclusive true if keys equal to highKey are included
+     * @return true if the range is inverted or empty
+     */
+    private boolean isEmptyRange(K lowKey, boolean lowInclusive, 
+        K highKey, boolean highInclusive) {
+        if (lowKey == null || highKey == null)
+            return false;
+        int compareValue = lowKey.compareTo(highKey);
+        return compareValue > 0 || 
+            (compareValue == 0 && !(lowInclusive && highInclusive));
+    }
+
+
+    /**
+     * Gets the index of the first key in the sorted list that is not 
+     * less than the given key. Unlike Collections.binarySearch this is 
+     * well defined when the list holds duplicate keys.
+     * 
+     * @param keys sorted list of keys
+     * @param key to be searched
+     * @return index of the first key >= key, or keys.size() if none
+     */
+    private int lowerBound(List<K> keys, K key) {
+        int low = 0;
+        int high = keys.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys.get(mid).compareTo(key) < 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * Gets the index of the first key in the sorted list that is 
+     * greater than the given key.
+     * 
+     * @param keys sorted list of keys
+     * @param key to be searched
+     * @return index of the first key > key, or keys.size() if none
+     */
+    private int upperBound(List<K> keys, K key) {
+        int low = 0;
+        int high = keys.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys.get(mid).compareTo(key) <= 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * Gets the index of the first key in the sorted list that lies 
+     * above the given lower bound.
+     * 
+     * @param keys sorted list of keys
+     * @param lowKey lower bound, or null for no lower bound
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @return index of the first key within the bound
+     */
+    private int firstSlot(List<K> keys, K lowKey, boolean lowInclusive) {
+        if (lowKey == null) 
+            return 0;
+        return lowInclusive ? lowerBound(keys, lowKey) : upperBound(keys, lowKey);
     }
 
 
@@ -146,6 +518,22 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
          */
         abstract K getFirstLeafKey();
 
+        /**
+         * Removes one occurrence of the key and value from the subtree,
+         * rebalancing the children that underflow
+         * 
+         * @param key
+         * @param value
+         * @return true if the pair was found and removed
+         */
+        abstract boolean remove(K key, V value);
+
+        /**
+         * 
+         * @return true if the node is less than half full
+         */
+        abstract boolean isUnderflow();
+
         /**
          * Gets the new sibling created after splitting the node
          * 
@@ -153,11 +541,32 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
          */
         abstract Node split();
 
-        /*
-         * (non-Javadoc)
-         * @see BPTree#rangeSearch(java.lang.Object, java.lang.String)
+        /**
+         * Gets the leaf node holding the first key that lies above 
+         * the given lower bound
+         * 
+         * @param lowKey lower bound, or null for the leftmost leaf
+         * @param lowInclusive true if keys equal to lowKey are included
+         * @return LeafNode
+         */
+        abstract LeafNode findLeaf(K lowKey, boolean lowInclusive);
+
+        /**
+         * Gets the number of entries stored in the subtree
+         * 
+         * @return number of entries
+         */
+        abstract int size();
+
+        /**
+         * Counts the entries of the subtree that come before the first
+         * key lying above the given lower bound
+         * 
+         * @param lowKey lower bound
+         * @param lowInclusive true if keys equal to lowKey lie above the bound
+         * @return number of entries below the bound
          */
-        abstract List<V> rangeSearch(K key, String comparator);
+        abstract int rank(K lowKey, boolean lowInclusive);
 
         /**
          * 
@@ -184,6 +593,9 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
         // List of children nodes
         List<Node> children;
 
+        // Number of entries stored in the leaves below this node
+        int count;
+
         /**
          * Package constructor
          */
@@ -208,6 +620,148 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
             return children.size() > branchingFactor;
         }
 
+        /**
+         * (non-Javadoc)
+         * @see BPTree.Node#isUnderflow()
+         */
+        boolean isUnderflow() {
+            return children.size() < (branchingFactor + 1) / 2;
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see BPTree.Node#size()
+         */
+        int size() {
+            return count;
+        }
+
+        /**
+         * Recomputes the entry count from the children after children
+         * have been moved in or out of this node
+         */
+        void recount() {
+            count = 0;
+            for (Node child : children) {
+                count += child.size();
+            }
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see BPTree.Node#rank(java.lang.Comparable, boolean)
+         */
+        int rank(K lowKey, boolean lowInclusive) {
+            //every child left of the one findLeaf descends to lies below the bound
+            int childLocation = firstSlot(keys, lowKey, lowInclusive);
+            int rank = 0;
+            for (int i = 0; i < childLocation; i++) {
+                rank += children.get(i).size();
+            }
+            return rank + children.get(childLocation).rank(lowKey, lowInclusive);
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see BPTree.Node#remove(java.lang.Comparable, java.lang.Object)
+         */
+        boolean remove(K key, V value) {
+            //duplicates of key may span several children, starting at
+            //the child left of the first separator >= key
+            int childLocation = lowerBound(keys, key);
+            while (true) {
+                Node child = children.get(childLocation);
+                if (child.remove(key, value)) {
+                    count--;
+                    if (child.isUnderflow()) {
+                        //rebalance with the left sibling, or the right one for the first child
+                        rebalance(childLocation > 0 ? childLocation - 1 : childLocation);
+                    }
+                    return true;
+                }
+                //the next child can only hold key if its separator equals key
+                if (childLocation < keys.size() 
+                    && keys.get(childLocation).compareTo(key) <= 0) {
+                    childLocation++;
+                }
+                else {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Rebalances two adjacent children after one of them underflowed,
+         * merging them when they fit in one node and otherwise moving
+         * one entry from the fuller child to the other
+         * 
+         * @param leftLocation index of the left one of the two children
+         */
+        void rebalance(int leftLocation) {
+            if (leftLocation + 1 >= children.size())
+                return;
+            Node left = children.get(leftLocation);
+            Node right = children.get(leftLocation + 1);
+            if (left instanceof BPTree.LeafNode) {
+                LeafNode leftLeaf = (LeafNode) left;
+                LeafNode rightLeaf = (LeafNode) right;
+                if (leftLeaf.keys.size() + rightLeaf.keys.size() <= branchingFactor - 1) {
+                    //merge the right leaf into the left one and unlink it
+                    leftLeaf.keys.addAll(rightLeaf.keys);
+                    leftLeaf.values.addAll(rightLeaf.values);
+                    leftLeaf.next = rightLeaf.next;
+                    if (rightLeaf.next != null) {
+                        rightLeaf.next.previous = leftLeaf;
+                    }
+                    keys.remove(leftLocation);
+                    children.remove(leftLocation + 1);
+                }
+                else {
+                    if (leftLeaf.keys.size() > rightLeaf.keys.size()) {
+                        //borrow the last entry of the left leaf
+                        int last = leftLeaf.keys.size() - 1;
+                        rightLeaf.keys.add(0, leftLeaf.keys.remove(last));
+                        rightLeaf.values.add(0, leftLeaf.values.remove(last));
+                    }
+                    else {
+                        //borrow the first entry of the right leaf
+                        leftLeaf.keys.add(rightLeaf.keys.remove(0));
+                        leftLeaf.values.add(rightLeaf.values.remove(0));
+                    }
+                    keys.set(leftLocation, rightLeaf.keys.get(0));
+                }
+            }
+            else {
+                InternalNode leftNode = (InternalNode) left;
+                InternalNode rightNode = (InternalNode) right;
+                if (leftNode.children.size() + rightNode.children.size() <= branchingFactor) {
+                    //merge the right node and the separator into the left node
+                    leftNode.keys.add(keys.remove(leftLocation));
+                    leftNode.keys.addAll(rightNode.keys);
+                    leftNode.children.addAll(rightNode.children);
+                    children.remove(leftLocation + 1);
+                    leftNode.recount();
+                }
+                else if (leftNode.children.size() > rightNode.children.size()) {
+                    //rotate the last child of the left node through the separator
+                    int last = leftNode.keys.size() - 1;
+                    rightNode.keys.add(0, keys.get(leftLocation));
+                    rightNode.children.add(0, leftNode.children.remove(last + 1));
+                    keys.set(leftLocation, leftNode.keys.remove(last));
+                    leftNode.recount();
+                    rightNode.recount();
+                }
+                else {
+                    //rotate the first child of the right node through the separator
+                    leftNode.keys.add(keys.get(leftLocation));
+                    leftNode.children.add(rightNode.children.remove(0));
+                    keys.set(leftLocation, rightNode.keys.remove(0));
+                    leftNode.recount();
+                    rightNode.recount();
+                }
+            }
+        }
+
         /**
          * (non-Javadoc)
          * @see BPTree.Node#insert(java.lang.Comparable, java.lang.Object)
@@ -226,19 +780,13 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
             //creates a new node and inserts the child into the list
             Node child = children.get(childLocation);
             child.insert(key, value);
+            count++;
 
             //check to see if the child is now overflowed
             if (child.isOverflow()) {
                 Node newSibling = child.split();
-                //insert the new sibling
-                searchLocation = Collections.binarySearch(keys, newSibling.getFirstLeafKey());
-                //checks to see if the key already exists in the list or not
-                if (searchLocation >= 0) {
-                    childLocation = searchLocation + 1;
-                }
-                else {
-                    childLocation = -searchLocation -1;
-                }
+                //the new sibling goes directly right of the split child so the
+                //order of children matches the leaf chain even among duplicates
                 //add the new sibling to the children and the first leaf of that to the keys
                 this.keys.add(childLocation, newSibling.getFirstLeafKey());
                 this.children.add(childLocation + 1, newSibling);
@@ -255,6 +803,7 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
                 //insert the children into the new root
                 newRoot.children.add(this);
                 newRoot.children.add(newSibling);
+                newRoot.recount();
                 //update to the new root
                 root = newRoot;
 
@@ -277,24 +826,20 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
             //clear the keys and children from the current lists
             this.keys.subList(start - 1, end).clear();
             this.children.subList(start, end + 1).clear();
+            this.recount();
+            newSibling.recount();
             return newSibling;
         }
 
         /**
          * (non-Javadoc)
-         * @see BPTree.Node#rangeSearch(java.lang.Comparable, java.lang.String)
+         * @see BPTree.Node#findLeaf(java.lang.Comparable, boolean)
          */
-        List<V> rangeSearch(K key, String comparator) {
-            int childLocation = Collections.binarySearch(keys, key);
-            //finds the start location for the search
-            if (childLocation >= 0) {
-                childLocation = childLocation + 1;
-            }
-            else {
-                childLocation = -childLocation -1;
-            }
-            //return the range search for the given key and comparator
-            return this.children.get(childLocation).rangeSearch(key, comparator);
+        LeafNode findLeaf(K lowKey, boolean lowInclusive) {
+            //duplicates of lowKey may sit left of an equal separator, so
+            //descend to the child left of the first separator in the range
+            int childLocation = firstSlot(keys, lowKey, lowInclusive);
+            return this.children.get(childLocation).findLeaf(lowKey, lowInclusive);
         }
 
     } // End of class InternalNode
@@ -344,6 +889,49 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
             return this.values.size() > branchingFactor - 1;
         }
 
+        /**
+         * (non-Javadoc)
+         * @see BPTree.Node#isUnderflow()
+         */
+        boolean isUnderflow() {
+            return this.values.size() < branchingFactor / 2;
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see BPTree.Node#size()
+         */
+        int size() {
+            return this.values.size();
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see BPTree.Node#rank(java.lang.Comparable, boolean)
+         */
+        int rank(K lowKey, boolean lowInclusive) {
+            return firstSlot(keys, lowKey, lowInclusive);
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see BPTree.Node#remove(Comparable, Object)
+         */
+        boolean remove(K key, V value) {
+            //look through the keys equal to key for the value
+            for (int i = lowerBound(keys, key); i < keys.size(); i++) {
+                if (keys.get(i).compareTo(key) != 0) {
+                    return false;
+                }
+                if (Objects.equals(values.get(i), value)) {
+                    keys.remove(i);
+                    values.remove(i);
+                    return true;
+                }
+            }
+            return false;
+        }
+
         /**
          * (non-Javadoc)
          * @see BPTree.Node#insert(Comparable, Object)
@@ -371,6 +959,7 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
                 //add children to the newly created root
                 newRoot.children.add(this);
                 newRoot.children.add(newSibling);
+                newRoot.recount();
                 //update to new root
                 root = newRoot;
             }
@@ -403,92 +992,76 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 
         /**
          * (non-Javadoc)
-         * @see BPTree.Node#rangeSearch(Comparable, String)
-         */
-        List<V> rangeSearch(K key, String comparator) {
-            //create list to be returned
-            List<V> returnList = new ArrayList<V>();
-            //get the current leafnode
-            LeafNode current = this;
-            while (current.previous != null) {
-                if (current.previous.equals(current.getFirstLeafKey())) {
-                    current = current.previous;
-                }
-                else {
-                    break;
-                }
-            }
+         * @see BPTree.Node#findLeaf(Comparable, boolean)
+         */
+        LeafNode findLeaf(K lowKey, boolean lowInclusive) {
+            return this;
+        }
 
-            //idk if this is needed
-            //int findLocation = Collections.binarySearch(keys, key);
-            //int startLocation;
-            //assign the correct insert location given the found location
-            //if (findLocation >= 0) {
-            //    startLocation = findLocation;
-            //}
-            //else {
-            //    startLocation = -findLocation -1;
-            //}
-
-
-            if (comparator.equals("<=")) {
-                while (current != null) {
-                    //make iterator for current leafnode value and key lists
-                    Iterator<K> keyIterator = current.keys.iterator();
-                    Iterator<V> valueIterator = current.values.iterator();
-                    //iterate over lists to find acceptable values
-                    while (keyIterator.hasNext()) {
-                        //get the next value and key
-                        K currentKey = keyIterator.next();
-                        V currentValue = valueIterator.next();
-                        //compare the current key to the key to be compared
-                        int compareValue = currentKey.compareTo(key);
-                        //compare the result to the comparator and add to return list if correct
-                        if (compareValue <= 0) {
-                            returnList.add(currentValue);
-                        }
-                    }
-                    //checks to see if there is more to the left
-                    if (current.previous != null) {
-                        current = current.previous;
-                    }
-                    else {
-                        break;
-                    }
+    } // End of class LeafNode
 
-                }
-            }
-            else {
-                while (current != null) {
-                    //make iterator for current leafnode value and key lists
-                    Iterator<K> keyIterator = current.keys.iterator();
-                    Iterator<V> valueIterator = current.values.iterator();
-                    //iterate over lists to find acceptable values
-                    while (keyIterator.hasNext()) {
-                        //get the next value and key
-                        K currentKey = keyIterator.next();
-                        V currentValue = valueIterator.next();
-                        //compare the current key to the key to be compared
-                        int compareValue = currentKey.compareTo(key);
-                        //compare the result to the comparator and add to return list if correct
-                        if (comparator.equals(">=") && compareValue >= 0) {
-                            returnList.add(currentValue);
-                        }
-                        else if (comparator.equals("==") && compareValue == 0) {
-                            returnList.add(currentValue);
-                        }
-                    }
-                    //incrememnts to the next Node
-                    current = current.next;
-                }
 
+    /**
+     * This class walks the leaf chain between two bounds one value 
+     * at a time. Splitting is inherited from AbstractSpliterator, which
+     * hands batches of values to the new spliterator.
+     * 
+     * @author sapan
+     */
+    private class RangeSpliterator extends Spliterators.AbstractSpliterator<V> {
+
+        // Leaf and slot of the next value, current is null once exhausted
+        LeafNode current;
+        int slot;
+
+        // Upper bound of the range
+        K highKey;
+        boolean highInclusive;
+
+        /**
+         * Package constructor, descends to the first value in the range
+         * 
+         * @param lowKey lower bound, or null for no lower bound
+         * @param lowInclusive true if keys equal to lowKey are included
+         * @param highKey upper bound, or null for no upper bound
+         * @param highInclusive true if keys equal to highKey are included
+         */
+        RangeSpliterator(K lowKey, boolean lowInclusive, 
+            K highKey, boolean highInclusive) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED);
+            this.highKey = highKey;
+            this.highInclusive = highInclusive;
+            if (!isEmptyRange(lowKey, lowInclusive, highKey, highInclusive)) {
+                current = root.findLeaf(lowKey, lowInclusive);
+                slot = firstSlot(current.keys, lowKey, lowInclusive);
             }
+        }
 
-            //return the finished list
-            return returnList;
+        /**
+         * (non-Javadoc)
+         * @see java.util.Spliterator#tryAdvance(java.util.function.Consumer)
+         */
+        @Override
+        public boolean tryAdvance(Consumer<? super V> action) {
+            //skip to the next leaf at the end of this one
+            while (current != null && slot == current.keys.size()) {
+                current = current.next;
+                slot = 0;
+            }
+            if (current == null)
+                return false;
+            if (highKey != null) {
+                int compareValue = current.keys.get(slot).compareTo(highKey);
+                if (compareValue > 0 || (compareValue == 0 && !highInclusive)) {
+                    current = null;
+                    return false;
+                }
+            }
+            action.accept(current.values.get(slot++));
+            return true;
         }
 
-    } // End of class LeafNode
+    } // End of class RangeSpliterator
 
 
     /**
@@ -1,4 +1,5 @@
 import java.util.List;
+import java.util.Spliterator;
 
 /**
  * A generic B+ Tree interface (DO NOT edit this file)
@@ -16,7 +17,35 @@ public interface BPTreeADT<K, V> {
      * @param value
      */
     public void insert(K key, V value);
-    
+
+
+    /**
+     * Removes one occurrence of the key and value from the tree,
+     * borrowing from or merging with sibling nodes that become
+     * less than half full.
+     *
+     * Values are matched with equals.
+     *
+     * @param key
+     * @param value
+     * @return true if the pair was found and removed
+     */
+    public boolean remove(K key, V value);
+
+
+    /**
+     * Changes the key a value is stored under from oldKey to newKey.
+     *
+     * The key is changed in place when the new key keeps its
+     * position in the node; otherwise the pair is moved.
+     *
+     * @param oldKey key the value is stored under
+     * @param newKey key the value should be stored under
+     * @param value
+     * @return true if the pair was found and updated
+     */
+    public boolean update(K oldKey, K newKey, V value);
+
     
     /**
      * Gets the values that satisfy the given range 
@@ -40,8 +69,89 @@ public interface BPTreeADT<K, V> {
      * range search; if nothing found, return empty list
      */
     public List<V> rangeSearch(K key, String comparator);
-    
-    
+
+
+    /**
+     * Gets the values whose keys lie between the two bounds,
+     * in ascending key order.
+     *
+     * Each bound can be inclusive or exclusive. A null bound
+     * leaves that side of the range open.
+     *
+     * Example:
+     *     If given lowKey = 2.5 (inclusive) and highKey = 4.0 (exclusive):
+     *         return all the values with the corresponding
+     *      keys >= 2.5 and < 4.0
+     *
+     * If the range is empty, return empty list.
+     *
+     * @param lowKey lower bound of the range, or null for no lower bound
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @param highKey upper bound of the range, or null for no upper bound
+     * @param highInclusive true if keys equal to highKey are included
+     * @return list of values that are the result of the
+     * range search; if nothing found, return empty list
+     */
+    public List<V> rangeSearch(K lowKey, boolean lowInclusive,
+        K highKey, boolean highInclusive);
+
+
+    /**
+     * Gets a lazy cursor over the values whose keys lie between the
+     * two bounds, in ascending key order.
+     *
+     * The bounds work as in rangeSearch, but no list is built: leaves
+     * are walked only as values are requested, so a caller can stop
+     * after the first few values. The spliterator can be split to feed
+     * a parallel stream.
+     *
+     * The tree must not be modified while the spliterator is in use.
+     *
+     * @param lowKey lower bound of the range, or null for no lower bound
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @param highKey upper bound of the range, or null for no upper bound
+     * @param highInclusive true if keys equal to highKey are included
+     * @return spliterator over the values in the range
+     */
+    public Spliterator<V> rangeSpliterator(K lowKey, boolean lowInclusive,
+        K highKey, boolean highInclusive);
+
+
+    /**
+     * Counts the entries whose keys lie between the two bounds.
+     *
+     * The bounds work as in rangeSearch. Every internal node keeps the
+     * number of entries below it, so the count is found in O(log N)
+     * without visiting the entries.
+     *
+     * @param lowKey lower bound of the range, or null for no lower bound
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @param highKey upper bound of the range, or null for no upper bound
+     * @param highInclusive true if keys equal to highKey are included
+     * @return number of entries in the range
+     */
+    public int count(K lowKey, boolean lowInclusive,
+        K highKey, boolean highInclusive);
+
+
+    /**
+     * Adds up the keys of the entries whose keys lie between the two
+     * bounds, counting a key once for every entry stored under it.
+     *
+     * The bounds work as in rangeSearch. Only numeric keys can be
+     * summed.
+     *
+     * @param lowKey lower bound of the range, or null for no lower bound
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @param highKey upper bound of the range, or null for no upper bound
+     * @param highInclusive true if keys equal to highKey are included
+     * @return sum of the keys in the range, 0 if the range is empty
+     * @throws UnsupportedOperationException if the keys are not numbers
+     */
+    public double sum(K lowKey, boolean lowInclusive,
+        K highKey, boolean highInclusive);
+
+
     /**
      * Returns a string representation for the tree
      * This method is provided to students in the implementation.
@@ -0,0 +1,1066 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Filename:   application.ConcurrentBPTree.java
+ * Project:    Food Query
+ * Authors:    Amanda Sarsha, Tanner Bart, Xuefeng Xu, David Berman
+ *
+ * A B+ tree that many threads can read and write at the same time.
+ *
+ * Every node has a StampedLock whose stamp doubles as the node's
+ * version (optimistic lock coupling). Readers take no locks: they note
+ * the stamp of a node, read it, and validate the stamp before trusting
+ * what they read, starting over if a writer changed the node meanwhile.
+ * Writers descend the same way and only turn the stamps of the nodes
+ * they change into write locks. Full nodes are split on the way down,
+ * so a split never reaches further up than the parent, which is the
+ * only other node the writer needs to lock.
+ *
+ * Removed entries leave their leaf smaller but are never merged away,
+ * so entries only ever move to the right and a scan can follow the
+ * leaf chain without locks. rangeSearch, count and sum are atomic: a
+ * scan keeps the stamp of every leaf it read and starts over unless
+ * none of them changed by the time the last one was read, so it saves
+ * what all its leaves held at that moment. A scan that keeps losing
+ * to writers read locks its leaves from left to right instead, which
+ * cannot deadlock with writers since they also lock leaves left to
+ * right. The spliterator is lazy and only reads each leaf atomically:
+ * it sees every entry present for its whole use and no entry absent
+ * for its whole use, but may see a later insert and miss an earlier one.
+ *
+ * FoodData keeps its indexes in DoubleBPTree, since Main does not let
+ * food items be added while a load or filter runs in the background.
+ *
+ * @param <K> key - expect a string that is the type of id for each item
+ * @param <V> value - expect a user-defined type that stores all data for a food item
+ */
+public class ConcurrentBPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
+
+    // Root of the tree, replaced only while the old root is write locked
+    private volatile Node root;
+
+    // Branching factor is the number of children nodes
+    // for internal nodes of the tree
+    private final int branchingFactor;
+
+    // Number of times a scan reads its leaves without locks before it
+    // read locks them
+    private static final int OPTIMISTIC_SCANS = 8;
+
+
+    /**
+     * Public constructor
+     *
+     * @param branchingFactor
+     */
+    public ConcurrentBPTree(int branchingFactor) {
+        if (branchingFactor <= 2) {
+            throw new IllegalArgumentException(
+                "Illegal branching factor: " + branchingFactor);
+        }
+        this.branchingFactor = branchingFactor;
+        this.root = new LeafNode();
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#insert(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public void insert(K key, V value) {
+        while (!tryInsert(key, value)) {
+            //another writer changed a node on the way, start over from the root
+        }
+    }
+
+
+    /**
+     * Makes one attempt at inserting the pair. A full node met on the
+     * way is split and the attempt ends, so the next attempt descends
+     * through the split nodes.
+     *
+     * @param key
+     * @param value
+     * @return true if the pair was inserted
+     */
+    private boolean tryInsert(K key, V value) {
+        Node node = root;
+        long stamp = node.lock.tryOptimisticRead();
+        if (stamp == 0 || node != root)
+            return false;
+        InternalNode parent = null;
+        long parentStamp = 0;
+        int childLocation = 0;
+        while (true) {
+            if (node.isFull()) {
+                split(parent, parentStamp, childLocation, node, stamp);
+                return false;
+            }
+            if (node instanceof ConcurrentBPTree.LeafNode) {
+                //the stamp still matching means the leaf still covers key
+                long writeStamp = node.lock.tryConvertToWriteLock(stamp);
+                if (writeStamp == 0)
+                    return false;
+                ((LeafNode) node).insert(key, value);
+                node.lock.unlockWrite(writeStamp);
+                return true;
+            }
+            //equal keys go right of an equal separator, as in BPTree
+            InternalNode inner = (InternalNode) node;
+            Node child;
+            try {
+                childLocation = upperBound(inner.keys, inner.keyCount, key);
+                child = inner.children[childLocation];
+            }
+            catch (RuntimeException e) {
+                checkStale(inner, stamp, e);
+                return false;
+            }
+            if (child == null || !inner.lock.validate(stamp))
+                return false;
+            long childStamp = child.lock.tryOptimisticRead();
+            if (childStamp == 0 || !inner.lock.validate(stamp))
+                return false;
+            parent = inner;
+            parentStamp = stamp;
+            node = child;
+            stamp = childStamp;
+        }
+    }
+
+
+    /**
+     * Splits a full node, locking it and its parent only if neither
+     * changed since their stamps were taken. The parent has room for
+     * the new separator because full nodes are split on the way down.
+     *
+     * @param parent parent of the node, or null if the node is the root
+     * @param parentStamp stamp of the parent
+     * @param childLocation index of the node among the parent's children
+     * @param node full node to be split
+     * @param stamp stamp of the node
+     */
+    private void split(InternalNode parent, long parentStamp, int childLocation,
+        Node node, long stamp) {
+        long parentWriteStamp = 0;
+        if (parent != null) {
+            parentWriteStamp = parent.lock.tryConvertToWriteLock(parentStamp);
+            if (parentWriteStamp == 0)
+                return;
+        }
+        long writeStamp = node.lock.tryConvertToWriteLock(stamp);
+        if (writeStamp != 0) {
+            if (parent != null) {
+                node.split(parent, childLocation);
+            }
+            else if (node == root) {
+                //the new root is published only after it is complete
+                InternalNode newRoot = new InternalNode();
+                newRoot.children[0] = node;
+                node.split(newRoot, 0);
+                root = newRoot;
+            }
+            node.lock.unlockWrite(writeStamp);
+        }
+        if (parent != null)
+            parent.lock.unlockWrite(parentWriteStamp);
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#remove(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public boolean remove(K key, V value) {
+        if (key == null)
+            return false;
+        LeafNode leaf = lockLeafOf(key, value);
+        if (leaf == null)
+            return false;
+        leaf.removeAt(leaf.indexOf(key, value));
+        leaf.lock.tryUnlockWrite();
+        return true;
+    }
+
+
+    /**
+     * Changes the key a value is stored under from oldKey to newKey.
+     *
+     * A key that keeps its position in the leaf is changed in place
+     * and atomically. Otherwise the pair is removed and inserted again,
+     * and other threads may find it missing in between.
+     *
+     * @see BPTreeADT#update(java.lang.Object, java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public boolean update(K oldKey, K newKey, V value) {
+        if (oldKey == null || newKey == null)
+            return false;
+        LeafNode leaf = lockLeafOf(oldKey, value);
+        if (leaf == null)
+            return false;
+        int slot = leaf.indexOf(oldKey, value);
+        //a key between its neighbours keeps the leaf sorted and within its separators
+        if (slot > 0 && slot < leaf.keyCount - 1
+            && key(leaf.keys[slot - 1]).compareTo(newKey) <= 0
+            && key(leaf.keys[slot + 1]).compareTo(newKey) >= 0) {
+            leaf.keys[slot] = newKey;
+            leaf.lock.tryUnlockWrite();
+            return true;
+        }
+        leaf.removeAt(slot);
+        leaf.lock.tryUnlockWrite();
+        insert(newKey, value);
+        return true;
+    }
+
+
+    /**
+     * Write locks the leaf holding the pair. Duplicates of key may span
+     * several leaves, which are locked left to right one at a time.
+     *
+     * @param key
+     * @param value
+     * @return the write locked leaf holding the pair, or null if the
+     *         pair is not in the tree and nothing is locked
+     */
+    private LeafNode lockLeafOf(K key, V value) {
+        LeafNode leaf = findLeaf(key, true);
+        leaf.lock.writeLock();
+        while (leaf.indexOf(key, value) < 0) {
+            LeafNode next = leaf.next;
+            //keys past key mean the pair would have been in this leaf
+            if (next == null || (leaf.keyCount > 0
+                && key(leaf.keys[leaf.keyCount - 1]).compareTo(key) > 0)) {
+                leaf.lock.tryUnlockWrite();
+                return null;
+            }
+            next.lock.writeLock();
+            leaf.lock.tryUnlockWrite();
+            leaf = next;
+        }
+        return leaf;
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#rangeSearch(java.lang.Object, java.lang.String)
+     */
+    @Override
+    public List<V> rangeSearch(K key, String comparator) {
+        if (comparator == null || key == null)
+            return new ArrayList<V>();
+        if (comparator.contentEquals(">="))
+            return rangeSearch(key, true, null, false);
+        if (comparator.contentEquals("<="))
+            return rangeSearch(null, false, key, true);
+        if (comparator.contentEquals("=="))
+            return rangeSearch(key, true, key, true);
+        return new ArrayList<V>();
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#rangeSearch(java.lang.Object, boolean, java.lang.Object, boolean)
+     */
+    @Override
+    public List<V> rangeSearch(K lowKey, boolean lowInclusive,
+        K highKey, boolean highInclusive) {
+        List<V> returnList = new ArrayList<V>();
+        readRange(lowKey, lowInclusive, highKey, highInclusive, null, returnList);
+        return returnList;
+    }
+
+
+    /**
+     * Gets a lazy cursor over the values whose keys lie between the
+     * two bounds. Unlike the other trees, this tree may be modified
+     * while the spliterator is in use.
+     *
+     * @see BPTreeADT#rangeSpliterator(java.lang.Object, boolean, java.lang.Object, boolean)
+     */
+    @Override
+    public Spliterator<V> rangeSpliterator(K lowKey, boolean lowInclusive,
+        K highKey, boolean highInclusive) {
+        return new RangeSpliterator(
+            new RangeCursor(lowKey, lowInclusive, highKey, highInclusive));
+    }
+
+
+    /**
+     * Counts the entries whose keys lie between the two bounds. Nodes
+     * keep no entry counts here, since every insert would have to lock
+     * the whole path to update them, so the range is scanned.
+     *
+     * @see BPTreeADT#count(java.lang.Object, boolean, java.lang.Object, boolean)
+     */
+    @Override
+    public int count(K lowKey, boolean lowInclusive,
+        K highKey, boolean highInclusive) {
+        List<V> values = new ArrayList<V>();
+        readRange(lowKey, lowInclusive, highKey, highInclusive, null, values);
+        return values.size();
+    }
+
+
+    /**
+     * Adds up the keys in the range by scanning it, see count.
+     *
+     * @see BPTreeADT#sum(java.lang.Object, boolean, java.lang.Object, boolean)
+     */
+    @Override
+    public double sum(K lowKey, boolean lowInclusive,
+        K highKey, boolean highInclusive) {
+        List<K> keys = new ArrayList<K>();
+        readRange(lowKey, lowInclusive, highKey, highInclusive, keys, new ArrayList<V>());
+        double sum = 0;
+        for (K key : keys) {
+            if (!(key instanceof Number))
+                throw new UnsupportedOperationException("keys are not numbers");
+            sum += ((Number) key).doubleValue();
+        }
+        return sum;
+    }
+
+
+    /**
+     * Copies the entries whose keys lie between the two bounds as they
+     * all were at one moment during the call
+     *
+     * @param lowKey lower bound, or null for no lower bound
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @param highKey upper bound, or null for no upper bound
+     * @param highInclusive true if keys equal to highKey are included
+     * @param keys list the keys are added to, or null if they are not needed
+     * @param values list the values are added to
+     */
+    private void readRange(K lowKey, boolean lowInclusive,
+        K highKey, boolean highInclusive, List<K> keys, List<V> values) {
+        List<LeafNode> leaves = new ArrayList<LeafNode>();
+        List<Long> stamps = new ArrayList<Long>();
+        for (int attempt = 0; attempt < OPTIMISTIC_SCANS; attempt++) {
+            RangeCursor cursor = new RangeCursor(lowKey, lowInclusive, highKey, highInclusive);
+            while (cursor.readLeaf()) {
+                leaves.add(cursor.read);
+                stamps.add(cursor.readStamp);
+                if (keys != null)
+                    keys.addAll(cursor.keys);
+                values.addAll(cursor.values);
+            }
+            //leaves unchanged since they were read all held their copies
+            //when the last one was read
+            boolean unchanged = true;
+            for (int i = 0; i < leaves.size() && unchanged; i++)
+                unchanged = leaves.get(i).lock.validate(stamps.get(i));
+            if (unchanged)
+                return;
+            leaves.clear();
+            stamps.clear();
+            if (keys != null)
+                keys.clear();
+            values.clear();
+        }
+        //the leaves stay read locked until the last one is read
+        RangeCursor cursor = new RangeCursor(lowKey, lowInclusive, highKey, highInclusive);
+        try {
+            while (cursor.leaf != null) {
+                LeafNode leaf = cursor.leaf;
+                stamps.add(leaf.lock.readLock());
+                leaves.add(leaf);
+                cursor.readLeaf();
+                if (keys != null)
+                    keys.addAll(cursor.keys);
+                values.addAll(cursor.values);
+            }
+        }
+        finally {
+            for (int i = 0; i < leaves.size(); i++)
+                leaves.get(i).lock.unlockRead(stamps.get(i));
+        }
+    }
+
+
+    /**
+     * Gets the leaf that held the first key above the given lower
+     * bound at some moment during the call
+     *
+     * @param lowKey lower bound, or null for the leftmost leaf
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @return LeafNode
+     */
+    private LeafNode findLeaf(K lowKey, boolean lowInclusive) {
+        while (true) {
+            LeafNode leaf = tryFindLeaf(lowKey, lowInclusive);
+            if (leaf != null)
+                return leaf;
+        }
+    }
+
+
+    /**
+     * Makes one attempt at descending to the leaf for findLeaf
+     *
+     * @param lowKey lower bound, or null for the leftmost leaf
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @return LeafNode, or null if a writer got in the way
+     */
+    private LeafNode tryFindLeaf(K lowKey, boolean lowInclusive) {
+        Node node = root;
+        long stamp = node.lock.tryOptimisticRead();
+        if (stamp == 0 || node != root)
+            return null;
+        while (node instanceof ConcurrentBPTree.InternalNode) {
+            //duplicates of lowKey may sit left of an equal separator, so
+            //descend to the child left of the first separator in the range
+            InternalNode inner = (InternalNode) node;
+            Node child;
+            try {
+                child = inner.children[firstSlot(inner.keys, inner.keyCount,
+                    lowKey, lowInclusive)];
+            }
+            catch (RuntimeException e) {
+                checkStale(inner, stamp, e);
+                return null;
+            }
+            if (child == null || !inner.lock.validate(stamp))
+                return null;
+            long childStamp = child.lock.tryOptimisticRead();
+            if (childStamp == 0 || !inner.lock.validate(stamp))
+                return null;
+            node = child;
+            stamp = childStamp;
+        }
+        return (LeafNode) node;
+    }
+
+
+    /**
+     * Rethrows an exception hit while reading a node optimistically
+     * unless a concurrent write explains it
+     *
+     * @param node node that was being read
+     * @param stamp stamp the read started with
+     * @param e exception hit during the read
+     */
+    private void checkStale(Node node, long stamp, RuntimeException e) {
+        if (node.lock.validate(stamp))
+            throw e;
+    }
+
+
+    /**
+     * Checks whether no key can lie between the two bounds
+     *
+     * @param lowKey lower bound, or null for no lower bound
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @param highKey upper bound, or null for no upper bound
+     * @param highInclusive true if keys equal to highKey are included
+     * @return true if the range is inverted or empty
+     */
+    private boolean isEmptyRange(K lowKey, boolean lowInclusive,
+        K highKey, boolean highInclusive) {
+        if (lowKey == null || highKey == null)
+            return false;
+        int compareValue = lowKey.compareTo(highKey);
+        return compareValue > 0 ||
+            (compareValue == 0 && !(lowInclusive && highInclusive));
+    }
+
+
+    /**
+     * Casts a key read from a node array
+     *
+     * @param key
+     * @return key
+     */
+    @SuppressWarnings("unchecked")
+    private K key(Object key) {
+        return (K) key;
+    }
+
+
+    /**
+     * Creates the child array of an internal node. Node is an inner
+     * class of a generic class, so its array is created raw and cast.
+     *
+     * @param length number of children the array holds
+     * @return array of nodes
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Node[] newChildren(int length) {
+        return (Node[]) new ConcurrentBPTree.Node[length];
+    }
+
+
+    /**
+     * Gets the index of the first of the first count keys that is
+     * not less than the given key, even among duplicate keys
+     *
+     * @param keys sorted keys
+     * @param count number of keys in use
+     * @param key to be searched
+     * @return index of the first key >= key, or count if none
+     */
+    private int lowerBound(Object[] keys, int count, K key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (key(keys[mid]).compareTo(key) < 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * Gets the index of the first of the first count keys that is
+     * greater than the given key
+     *
+     * @param keys sorted keys
+     * @param count number of keys in use
+     * @param key to be searched
+     * @return index of the first key > key, or count if none
+     */
+    private int upperBound(Object[] keys, int count, K key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (key(keys[mid]).compareTo(key) <= 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * Gets the index of the first key that lies above the given lower bound
+     *
+     * @param keys sorted keys
+     * @param count number of keys in use
+     * @param lowKey lower bound, or null for no lower bound
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @return index of the first key within the bound
+     */
+    private int firstSlot(Object[] keys, int count, K lowKey, boolean lowInclusive) {
+        if (lowKey == null)
+            return 0;
+        return lowInclusive ? lowerBound(keys, count, lowKey)
+            : upperBound(keys, count, lowKey);
+    }
+
+
+    /**
+     * Returns a string representation of the tree. The nodes are read
+     * without locks, so the tree should not be modified meanwhile.
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        Queue<List<Node>> queue = new LinkedList<List<Node>>();
+        queue.add(Arrays.asList(root));
+        StringBuilder sb = new StringBuilder();
+        while (!queue.isEmpty()) {
+            Queue<List<Node>> nextQueue = new LinkedList<List<Node>>();
+            while (!queue.isEmpty()) {
+                List<Node> nodes = queue.remove();
+                sb.append('{');
+                Iterator<Node> it = nodes.iterator();
+                while (it.hasNext()) {
+                    Node node = it.next();
+                    sb.append(node.toString());
+                    if (it.hasNext())
+                        sb.append(", ");
+                    if (node instanceof ConcurrentBPTree.InternalNode) {
+                        InternalNode internal = (InternalNode) node;
+                        nextQueue.add(Arrays.asList(internal.children)
+                            .subList(0, internal.keyCount + 1));
+                    }
+                }
+                sb.append('}');
+                if (!queue.isEmpty())
+                    sb.append(", ");
+                else {
+                    sb.append('\n');
+                }
+            }
+            queue = nextQueue;
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * This abstract class represents any type of node in the tree.
+     * Nodes never grow past their arrays: a full node is split before
+     * anything is added to it.
+     */
+    private abstract class Node {
+
+        // Lock and version of the node
+        final StampedLock lock = new StampedLock();
+
+        // Keys in use are keys[0, keyCount)
+        Object[] keys;
+        int keyCount;
+
+        /**
+         * Package constructor
+         */
+        Node() {
+            this.keys = new Object[branchingFactor - 1];
+        }
+
+        /**
+         * @return true if the node cannot take another entry
+         */
+        boolean isFull() {
+            return keyCount == keys.length;
+        }
+
+        /**
+         * Moves the upper half of the node to a new sibling and adds
+         * the sibling to the parent right of this node. Both nodes must
+         * be write locked.
+         *
+         * @param parent parent with room for one more child
+         * @param childLocation index of this node among the parent's children
+         */
+        abstract void split(InternalNode parent, int childLocation);
+
+        public String toString() {
+            return Arrays.asList(keys).subList(0, keyCount).toString();
+        }
+
+    } // End of abstract class Node
+
+
+    /**
+     * This class represents an internal node of the tree.
+     */
+    private class InternalNode extends Node {
+
+        // Children in use are children[0, keyCount + 1)
+        Node[] children;
+
+        /**
+         * Package constructor
+         */
+        InternalNode() {
+            super();
+            this.children = newChildren(branchingFactor);
+        }
+
+        /**
+         * Adds a separator and the child right of it
+         *
+         * @param keyLocation index the separator is inserted at
+         * @param key separator
+         * @param child child right of the separator
+         */
+        void insertChild(int keyLocation, Object key, Node child) {
+            System.arraycopy(keys, keyLocation, keys, keyLocation + 1,
+                keyCount - keyLocation);
+            System.arraycopy(children, keyLocation + 1, children, keyLocation + 2,
+                keyCount - keyLocation);
+            keys[keyLocation] = key;
+            children[keyLocation + 1] = child;
+            keyCount++;
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see ConcurrentBPTree.Node#split(ConcurrentBPTree.InternalNode, int)
+         */
+        void split(InternalNode parent, int childLocation) {
+            //the middle key moves up to the parent
+            int middle = keyCount / 2;
+            InternalNode newSibling = new InternalNode();
+            newSibling.keyCount = keyCount - middle - 1;
+            System.arraycopy(keys, middle + 1, newSibling.keys, 0, newSibling.keyCount);
+            System.arraycopy(children, middle + 1, newSibling.children, 0,
+                newSibling.keyCount + 1);
+            Object separator = keys[middle];
+            Arrays.fill(keys, middle, keyCount, null);
+            Arrays.fill(children, middle + 1, keyCount + 1, null);
+            keyCount = middle;
+            parent.insertChild(childLocation, separator, newSibling);
+        }
+
+    } // End of class InternalNode
+
+
+    /**
+     * This class represents a leaf node of the tree.
+     */
+    private class LeafNode extends Node {
+
+        // Values in use are values[0, keyCount)
+        Object[] values;
+
+        // Reference to the next leaf node, only changed by splits
+        LeafNode next;
+
+        /**
+         * Package constructor
+         */
+        LeafNode() {
+            super();
+            this.values = new Object[branchingFactor - 1];
+        }
+
+        /**
+         * Inserts the pair after any equal keys
+         *
+         * @param key
+         * @param value
+         */
+        void insert(K key, V value) {
+            int slot = upperBound(keys, keyCount, key);
+            System.arraycopy(keys, slot, keys, slot + 1, keyCount - slot);
+            System.arraycopy(values, slot, values, slot + 1, keyCount - slot);
+            keys[slot] = key;
+            values[slot] = value;
+            keyCount++;
+        }
+
+        /**
+         * Removes the key and value at the given slot
+         *
+         * @param slot index of the pair to be removed
+         */
+        void removeAt(int slot) {
+            System.arraycopy(keys, slot + 1, keys, slot, keyCount - slot - 1);
+            System.arraycopy(values, slot + 1, values, slot, keyCount - slot - 1);
+            keyCount--;
+            keys[keyCount] = null;
+            values[keyCount] = null;
+        }
+
+        /**
+         * Gets the slot of the pair in this leaf
+         *
+         * @param key
+         * @param value values are matched with equals
+         * @return slot of the pair, or -1 if it is not in this leaf
+         */
+        int indexOf(K key, V value) {
+            for (int i = lowerBound(keys, keyCount, key); i < keyCount; i++) {
+                if (key(keys[i]).compareTo(key) != 0)
+                    return -1;
+                if (Objects.equals(values[i], value))
+                    return i;
+            }
+            return -1;
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see ConcurrentBPTree.Node#split(ConcurrentBPTree.InternalNode, int)
+         */
+        void split(InternalNode parent, int childLocation) {
+            LeafNode newSibling = new LeafNode();
+            int start = (keyCount + 1) / 2;
+            newSibling.keyCount = keyCount - start;
+            System.arraycopy(keys, start, newSibling.keys, 0, newSibling.keyCount);
+            System.arraycopy(values, start, newSibling.values, 0, newSibling.keyCount);
+            //the sibling is complete before a scan can reach it through next
+            newSibling.next = this.next;
+            this.next = newSibling;
+            Arrays.fill(keys, start, keyCount, null);
+            Arrays.fill(values, start, keyCount, null);
+            keyCount = start;
+            parent.insertChild(childLocation, newSibling.keys[0], newSibling);
+        }
+
+    } // End of class LeafNode
+
+
+    /**
+     * This class reads the entries of a range one leaf at a time. Each
+     * leaf is copied without locks and the copy is kept only if the
+     * leaf's stamp is unchanged afterwards.
+     */
+    private class RangeCursor {
+
+        // Entries of the range in the leaf read last
+        final List<K> keys = new ArrayList<K>();
+        final List<V> values = new ArrayList<V>();
+
+        // Next leaf to read, null once the range is exhausted
+        LeafNode leaf;
+
+        // Leaf read last and the stamp it was read under
+        LeafNode read;
+        long readStamp;
+
+        // Bounds of the range
+        final K lowKey;
+        final boolean lowInclusive;
+        final K highKey;
+        final boolean highInclusive;
+
+        /**
+         * Package constructor, descends to the first leaf of the range
+         *
+         * @param lowKey lower bound, or null for no lower bound
+         * @param lowInclusive true if keys equal to lowKey are included
+         * @param highKey upper bound, or null for no upper bound
+         * @param highInclusive true if keys equal to highKey are included
+         */
+        RangeCursor(K lowKey, boolean lowInclusive, K highKey, boolean highInclusive) {
+            this.lowKey = lowKey;
+            this.lowInclusive = lowInclusive;
+            this.highKey = highKey;
+            this.highInclusive = highInclusive;
+            //an inverted or empty range cannot match anything
+            if (!isEmptyRange(lowKey, lowInclusive, highKey, highInclusive))
+                leaf = findLeaf(lowKey, lowInclusive);
+        }
+
+        /**
+         * Replaces keys and values with the entries of the range in the
+         * next leaf, which may be none
+         *
+         * @return false if the range is exhausted
+         */
+        @SuppressWarnings("unchecked")
+        boolean readLeaf() {
+            keys.clear();
+            values.clear();
+            if (leaf == null)
+                return false;
+            while (true) {
+                long stamp = leaf.lock.tryOptimisticRead();
+                if (stamp == 0) {
+                    //a writer holds the leaf
+                    Thread.yield();
+                    continue;
+                }
+                LeafNode next;
+                boolean passed = false;
+                try {
+                    int count = leaf.keyCount;
+                    next = leaf.next;
+                    //a leaf split after the descent may hand keys below the
+                    //lower bound to the next leaf, so every leaf is searched
+                    for (int i = firstSlot(leaf.keys, count, lowKey, lowInclusive);
+                        i < count; i++) {
+                        K key = key(leaf.keys[i]);
+                        if (highKey != null) {
+                            int compareValue = key.compareTo(highKey);
+                            if (compareValue > 0 || (compareValue == 0 && !highInclusive)) {
+                                passed = true;
+                                break;
+                            }
+                        }
+                        keys.add(key);
+                        values.add((V) leaf.values[i]);
+                    }
+                }
+                catch (RuntimeException e) {
+                    checkStale(leaf, stamp, e);
+                    next = null;
+                    stamp = 0;
+                }
+                if (stamp == 0 || !leaf.lock.validate(stamp)) {
+                    keys.clear();
+                    values.clear();
+                    continue;
+                }
+                read = leaf;
+                readStamp = stamp;
+                leaf = passed ? null : next;
+                return true;
+            }
+        }
+
+    } // End of class RangeCursor
+
+
+    /**
+     * This class hands out the values of a RangeCursor one at a time.
+     * Splitting is inherited from AbstractSpliterator, which hands
+     * batches of values to the new spliterator.
+     */
+    private class RangeSpliterator extends Spliterators.AbstractSpliterator<V> {
+
+        // Cursor over the range and the position in its current leaf
+        final RangeCursor cursor;
+        int slot;
+
+        /**
+         * Package constructor
+         *
+         * @param cursor cursor over the range
+         */
+        RangeSpliterator(RangeCursor cursor) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED);
+            this.cursor = cursor;
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see java.util.Spliterator#tryAdvance(java.util.function.Consumer)
+         */
+        @Override
+        public boolean tryAdvance(Consumer<? super V> action) {
+            while (slot == cursor.values.size()) {
+                if (!cursor.readLeaf())
+                    return false;
+                slot = 0;
+            }
+            action.accept(cursor.values.get(slot++));
+            return true;
+        }
+
+    } // End of class RangeSpliterator
+
+
+    /**
+     * Stress test: writers insert and remove while readers scan, and
+     * every scan is checked against what the writers had finished.
+     *
+     * Writer w inserts the values w, w + WRITERS, w + 2 * WRITERS, ...
+     * under the key (value / WRITERS) % KEYS, counting finished inserts
+     * in progress. A scan that starts after an insert finished must
+     * return its value, and a scan that returns a writer's value must
+     * return every value in its range the writer inserted before it.
+     * Every scan must be sorted, within its bounds and free of
+     * duplicates. The writers then remove every other value and check
+     * that their own removals are visible.
+     *
+     * @param args unused
+     * @throws InterruptedException
+     */
+    public static void main(String[] args) throws InterruptedException {
+        final int writers = 4;
+        final int readers = 4;
+        final int perWriter = 40000;
+        final int keyCount = 1000;
+        final ConcurrentBPTree<Integer, Integer> tree = new ConcurrentBPTree<>(8);
+        final AtomicIntegerArray progress = new AtomicIntegerArray(writers);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            final int writer = w;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < perWriter; i++) {
+                    tree.insert(i % keyCount, i * writers + writer);
+                    progress.set(writer, i + 1);
+                }
+                for (int i = 0; i < perWriter; i += 2) {
+                    int value = i * writers + writer;
+                    if (!tree.remove(i % keyCount, value))
+                        throw new IllegalStateException("Missing value " + value);
+                    if (tree.rangeSearch(i % keyCount, "==").contains(value))
+                        throw new IllegalStateException("Removed value " + value + " found");
+                }
+            }));
+        }
+        for (int r = 0; r < readers; r++) {
+            final Random rnd = new Random(r);
+            threads.add(new Thread(() -> {
+                int scans = 0;
+                while (writing.get() || scans == 0) {
+                    int low = rnd.nextInt(keyCount);
+                    int high = low + rnd.nextInt(20);
+                    int[] finished = new int[writers];
+                    for (int w = 0; w < writers; w++)
+                        finished[w] = progress.get(w);
+                    List<Integer> found = tree.rangeSearch(low, true, high, false);
+                    Set<Integer> seen = new HashSet<>();
+                    int[] latest = new int[writers];
+                    Arrays.fill(latest, -1);
+                    int lastKey = low;
+                    for (Integer value : found) {
+                        latest[value % writers] = Math.max(latest[value % writers],
+                            value / writers);
+                        int key = (value / writers) % keyCount;
+                        if (key < lastKey || key >= high)
+                            throw new IllegalStateException("Out of order key " + key);
+                        if (!seen.add(value))
+                            throw new IllegalStateException("Duplicate value " + value);
+                        lastKey = key;
+                    }
+                    //inserts finished before the scan must show up, and so must
+                    //every earlier insert of a writer whose insert was seen,
+                    //unless the writer may have started removing during the scan
+                    for (int w = 0; w < writers; w++) {
+                        if (progress.get(w) == perWriter)
+                            continue;
+                        int before = Math.max(finished[w], latest[w] + 1);
+                        for (int key = low; key < high && key < keyCount; key++) {
+                            for (int i = key; i < before; i += keyCount) {
+                                if (!seen.contains(i * writers + w))
+                                    throw new IllegalStateException(
+                                        "Earlier insert " + (i * writers + w) + " not found");
+                            }
+                        }
+                    }
+                    scans++;
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+            thread.start();
+        }
+        for (int w = 0; w < writers; w++)
+            threads.get(w).join();
+        writing.set(false);
+        for (Thread thread : threads)
+            thread.join();
+        if (failure.get() != null)
+            throw new IllegalStateException("Stress test failed", failure.get());
+
+        //every odd value is left, in key order
+        List<Integer> all = tree.rangeSearch(null, true, null, true);
+        if (all.size() != writers * perWriter / 2
+            || tree.count(null, true, null, true) != all.size())
+            throw new IllegalStateException("Wrong number of values " + all.size());
+        Set<Integer> values = new HashSet<>(all);
+        for (int w = 0; w < writers; w++) {
+            for (int i = 1; i < perWriter; i += 2) {
+                if (!values.contains(i * writers + w))
+                    throw new IllegalStateException("Lost value " + (i * writers + w));
+            }
+        }
+        System.out.println("Stress test passed: " + all.size() + " values left");
+    }
+
+} // End of class ConcurrentBPTree
@@ -0,0 +1,1320 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Filename:   application.DoubleBPTree.java
+ * Project:    Food Query
+ * Authors:    Amanda Sarsha, Tanner Bart, Xuefeng Xu, David Berman
+ *
+ * A B+ tree specialized for primitive double keys, used for the
+ * nutrient indexes. It behaves like a BPTree&lt;Double, V&gt; but every
+ * node stores its keys in a double[] and its values or children in a
+ * plain array, so no Double is boxed per entry and no ArrayList is
+ * allocated per node. Keys are ordered as Double.compare orders them,
+ * which is the same order BPTree uses for Double keys.
+ *
+ * @param <V> value - expect a user-defined type that stores all data for a food item
+ */
+public class DoubleBPTree<V> implements BPTreeADT<Double, V> {
+
+    // Root of the tree
+    private Node root;
+
+    // Branching factor is the number of children nodes
+    // for internal nodes of the tree
+    private int branchingFactor;
+
+    // Outcomes of Node.update
+    private static final int NOT_FOUND = 0;
+    private static final int UPDATED = 1;
+    private static final int MOVED = 2;
+
+
+    /**
+     * Public constructor
+     *
+     * @param branchingFactor
+     */
+    public DoubleBPTree(int branchingFactor) {
+        if (branchingFactor <= 2) {
+            throw new IllegalArgumentException(
+                "Illegal branching factor: " + branchingFactor);
+        }
+        this.branchingFactor = branchingFactor;
+        this.root = new LeafNode(branchingFactor);
+    }
+
+
+    /**
+     * Bulk-loading constructor
+     *
+     * Builds the tree bottom-up from the pairs (keys[i], values.get(i)):
+     * the pairs are sorted by key once, packed into leaves filled to
+     * the given fraction of their capacity, and each internal level is
+     * built directly on top of the one below it.
+     *
+     * @param branchingFactor
+     * @param keys keys to be loaded, in any order
+     * @param values values matching the keys position by position
+     * @param fillFactor fraction of each node to fill, in (0, 1]
+     */
+    public DoubleBPTree(int branchingFactor, double[] keys, List<V> values,
+        double fillFactor) {
+        this(branchingFactor);
+        if (keys.length != values.size()) {
+            throw new IllegalArgumentException(
+                "Mismatched keys and values: " + keys.length + ", " + values.size());
+        }
+        if (!(fillFactor > 0 && fillFactor <= 1)) {
+            throw new IllegalArgumentException(
+                "Illegal fill factor: " + fillFactor);
+        }
+        int size = keys.length;
+        if (size == 0)
+            return;
+
+        Object[] valueArray = values.toArray();
+        int[] order = sortedOrder(keys);
+
+        //pack the sorted pairs into a linked chain of leaves
+        List<Node> level = new ArrayList<Node>();
+        int leafCount = nodeCount(size, fillCapacity(branchingFactor - 1, fillFactor));
+        LeafNode previous = null;
+        int position = 0;
+        for (int i = 0; i < leafCount; i++) {
+            LeafNode leaf = new LeafNode(branchingFactor);
+            int count = share(size, leafCount, i);
+            for (int j = 0; j < count; j++, position++) {
+                leaf.keys[j] = keys[order[position]];
+                leaf.values[j] = valueArray[order[position]];
+            }
+            leaf.keyCount = count;
+            leaf.resum();
+            leaf.previous = previous;
+            if (previous != null)
+                previous.next = leaf;
+            previous = leaf;
+            level.add(leaf);
+        }
+
+        //build each internal level from the level below until one node is left
+        int childrenPerNode = Math.max(2, fillCapacity(branchingFactor, fillFactor));
+        while (level.size() > 1) {
+            List<Node> parents = new ArrayList<Node>();
+            //every internal node needs at least two children
+            int parentCount = Math.min(nodeCount(level.size(), childrenPerNode),
+                level.size() / 2);
+            position = 0;
+            for (int i = 0; i < parentCount; i++) {
+                InternalNode parent = new InternalNode(branchingFactor);
+                int count = share(level.size(), parentCount, i);
+                parent.children[0] = level.get(position++);
+                for (int j = 1; j < count; j++, position++) {
+                    Node child = level.get(position);
+                    parent.keys[j - 1] = child.getFirstLeafKey();
+                    parent.children[j] = child;
+                }
+                parent.keyCount = count - 1;
+                parent.recount();
+                parents.add(parent);
+            }
+            level = parents;
+        }
+        this.root = level.get(0);
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#insert(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public void insert(Double key, V value) {
+        insert(key.doubleValue(), value);
+    }
+
+
+    /**
+     * Inserts the key and value in the appropriate nodes in the tree
+     * without boxing the key
+     *
+     * @param key
+     * @param value
+     */
+    public void insert(double key, V value) {
+        Node newSibling = root.insert(key, value);
+        //a split root gets a new root above it
+        if (newSibling != null) {
+            InternalNode newRoot = new InternalNode(branchingFactor);
+            newRoot.keys[0] = newSibling.getFirstLeafKey();
+            newRoot.children[0] = root;
+            newRoot.children[1] = newSibling;
+            newRoot.keyCount = 1;
+            newRoot.recount();
+            root = newRoot;
+        }
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#remove(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public boolean remove(Double key, V value) {
+        return key != null && remove(key.doubleValue(), value);
+    }
+
+
+    /**
+     * Removes one occurrence of the key and value from the tree
+     * without boxing the key
+     *
+     * @param key
+     * @param value
+     * @return true if the pair was found and removed
+     */
+    public boolean remove(double key, V value) {
+        boolean removed = root.remove(key, value);
+        //a root left with a single child is replaced by that child
+        if (root instanceof InternalNode && root.keyCount == 0) {
+            root = ((InternalNode) root).children[0];
+        }
+        return removed;
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#update(java.lang.Object, java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public boolean update(Double oldKey, Double newKey, V value) {
+        return oldKey != null && newKey != null
+            && update(oldKey.doubleValue(), newKey.doubleValue(), value);
+    }
+
+
+    /**
+     * Changes the key a value is stored under without boxing the keys
+     *
+     * @param oldKey key the value is stored under
+     * @param newKey key the value should be stored under
+     * @param value
+     * @return true if the pair was found and updated
+     */
+    public boolean update(double oldKey, double newKey, V value) {
+        //the key is replaced in place when it can be, which also brings
+        //the key sums on the way down up to date
+        int result = root.update(oldKey, newKey, value);
+        if (result == MOVED) {
+            //otherwise the pair moves to where newKey belongs
+            remove(oldKey, value);
+            insert(newKey, value);
+        }
+        return result != NOT_FOUND;
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#rangeSearch(java.lang.Object, java.lang.String)
+     */
+    @Override
+    public List<V> rangeSearch(Double key, String comparator) {
+        if (comparator == null || key == null)
+            return new ArrayList<V>();
+        double value = key.doubleValue();
+        if (comparator.contentEquals(">="))
+            return rangeSearch(value, true, Double.POSITIVE_INFINITY, true);
+        if (comparator.contentEquals("<="))
+            return rangeSearch(Double.NEGATIVE_INFINITY, true, value, true);
+        if (comparator.contentEquals("=="))
+            return rangeSearch(value, true, value, true);
+        return new ArrayList<V>();
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#rangeSearch(java.lang.Object, boolean, java.lang.Object, boolean)
+     */
+    @Override
+    public List<V> rangeSearch(Double lowKey, boolean lowInclusive,
+        Double highKey, boolean highInclusive) {
+        //an open bound is the matching infinity, which every key passes
+        return rangeSearch(
+            lowKey == null ? Double.NEGATIVE_INFINITY : lowKey.doubleValue(),
+            lowKey == null || lowInclusive,
+            highKey == null ? Double.POSITIVE_INFINITY : highKey.doubleValue(),
+            highKey == null || highInclusive);
+    }
+
+
+    /**
+     * Gets the values whose keys lie between the two bounds, in
+     * ascending key order, without boxing the bounds or the keys
+     *
+     * @param lowKey lower bound of the range
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @param highKey upper bound of the range
+     * @param highInclusive true if keys equal to highKey are included
+     * @return list of values that are the result of the
+     * range search; if nothing found, return empty list
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> rangeSearch(double lowKey, boolean lowInclusive,
+        double highKey, boolean highInclusive) {
+        List<V> returnList = new ArrayList<V>();
+        //an inverted or empty range cannot match anything
+        int compareValue = Double.compare(lowKey, highKey);
+        if (compareValue > 0 ||
+            (compareValue == 0 && !(lowInclusive && highInclusive)))
+            return returnList;
+
+        //one descent to the first matching slot
+        LeafNode current = root.findLeaf(lowKey, lowInclusive);
+        int slot = firstSlot(current.keys, current.keyCount, lowKey, lowInclusive);
+        //then walk the leaf chain until the upper bound is passed
+        while (current != null) {
+            while (slot < current.keyCount) {
+                compareValue = Double.compare(current.keys[slot], highKey);
+                if (compareValue > 0 || (compareValue == 0 && !highInclusive))
+                    return returnList;
+                returnList.add((V) current.values[slot]);
+                slot++;
+            }
+            current = current.next;
+            slot = 0;
+        }
+        return returnList;
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#rangeSpliterator(java.lang.Object, boolean, java.lang.Object, boolean)
+     */
+    @Override
+    public Spliterator<V> rangeSpliterator(Double lowKey, boolean lowInclusive,
+        Double highKey, boolean highInclusive) {
+        return rangeSpliterator(
+            lowKey == null ? Double.NEGATIVE_INFINITY : lowKey.doubleValue(),
+            lowKey == null || lowInclusive,
+            highKey == null ? Double.POSITIVE_INFINITY : highKey.doubleValue(),
+            highKey == null || highInclusive);
+    }
+
+
+    /**
+     * Gets a lazy cursor over the values whose keys lie between the
+     * two bounds, without boxing the bounds or the keys
+     *
+     * @param lowKey lower bound of the range
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @param highKey upper bound of the range
+     * @param highInclusive true if keys equal to highKey are included
+     * @return spliterator over the values in the range
+     */
+    public Spliterator<V> rangeSpliterator(double lowKey, boolean lowInclusive,
+        double highKey, boolean highInclusive) {
+        return new RangeSpliterator(lowKey, lowInclusive, highKey, highInclusive);
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#count(java.lang.Object, boolean, java.lang.Object, boolean)
+     */
+    @Override
+    public int count(Double lowKey, boolean lowInclusive,
+        Double highKey, boolean highInclusive) {
+        return count(
+            lowKey == null ? Double.NEGATIVE_INFINITY : lowKey.doubleValue(),
+            lowKey == null || lowInclusive,
+            highKey == null ? Double.POSITIVE_INFINITY : highKey.doubleValue(),
+            highKey == null || highInclusive);
+    }
+
+
+    /**
+     * Counts the entries whose keys lie between the two bounds in
+     * O(log N), without boxing the bounds
+     *
+     * @param lowKey lower bound of the range
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @param highKey upper bound of the range
+     * @param highInclusive true if keys equal to highKey are included
+     * @return number of entries in the range
+     */
+    public int count(double lowKey, boolean lowInclusive,
+        double highKey, boolean highInclusive) {
+        if (isEmptyRange(lowKey, lowInclusive, highKey, highInclusive))
+            return 0;
+        //entries up to the upper bound minus the entries below the lower bound
+        return root.rank(highKey, !highInclusive) - root.rank(lowKey, lowInclusive);
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#sum(java.lang.Object, boolean, java.lang.Object, boolean)
+     */
+    @Override
+    public double sum(Double lowKey, boolean lowInclusive,
+        Double highKey, boolean highInclusive) {
+        return sum(
+            lowKey == null ? Double.NEGATIVE_INFINITY : lowKey.doubleValue(),
+            lowKey == null || lowInclusive,
+            highKey == null ? Double.POSITIVE_INFINITY : highKey.doubleValue(),
+            highKey == null || highInclusive);
+    }
+
+
+    /**
+     * Adds up the keys whose keys lie between the two bounds in
+     * O(log N), without boxing the bounds or the keys
+     *
+     * @param lowKey lower bound of the range
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @param highKey upper bound of the range
+     * @param highInclusive true if keys equal to highKey are included
+     * @return sum of the keys in the range, 0 if the range is empty
+     */
+    public double sum(double lowKey, boolean lowInclusive,
+        double highKey, boolean highInclusive) {
+        if (isEmptyRange(lowKey, lowInclusive, highKey, highInclusive))
+            return 0;
+        return root.sum(lowKey, lowInclusive, highKey, highInclusive);
+    }
+
+
+    /**
+     * Checks whether no key can lie between the two bounds
+     *
+     * @param lowKey lower bound
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @param highKey upper bound
+     * @param highInclusive true if keys equal to highKey are included
+     * @return true if the range is inverted or empty
+     */
+    private static boolean isEmptyRange(double lowKey, boolean lowInclusive,
+        double highKey, boolean highInclusive) {
+        int compareValue = Double.compare(lowKey, highKey);
+        return compareValue > 0 ||
+            (compareValue == 0 && !(lowInclusive && highInclusive));
+    }
+
+
+    /**
+     * Gets the index of the first of the first count keys that is
+     * not less than the given key, even among duplicate keys
+     *
+     * @param keys sorted keys
+     * @param count number of keys in use
+     * @param key to be searched
+     * @return index of the first key >= key, or count if none
+     */
+    private static int lowerBound(double[] keys, int count, double key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Double.compare(keys[mid], key) < 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * Gets the index of the first of the first count keys that is
+     * greater than the given key
+     *
+     * @param keys sorted keys
+     * @param count number of keys in use
+     * @param key to be searched
+     * @return index of the first key > key, or count if none
+     */
+    private static int upperBound(double[] keys, int count, double key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Double.compare(keys[mid], key) <= 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * Gets the index of the first key that lies above the given lower bound
+     *
+     * @param keys sorted keys
+     * @param count number of keys in use
+     * @param lowKey lower bound
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @return index of the first key within the bound
+     */
+    private static int firstSlot(double[] keys, int count, double lowKey,
+        boolean lowInclusive) {
+        return lowInclusive ? lowerBound(keys, count, lowKey)
+            : upperBound(keys, count, lowKey);
+    }
+
+
+    /**
+     * Gets the positions of the keys in ascending key order. Equal keys
+     * keep their original order, and input that is already sorted is
+     * recognized in a single pass.
+     *
+     * @param keys keys to be ordered
+     * @return positions of keys, sorted by key
+     */
+    private static int[] sortedOrder(double[] keys) {
+        int[] order = new int[keys.length];
+        boolean sorted = true;
+        for (int i = 0; i < keys.length; i++) {
+            order[i] = i;
+            if (i > 0 && Double.compare(keys[i - 1], keys[i]) > 0)
+                sorted = false;
+        }
+        if (!sorted)
+            mergeSort(order, new int[keys.length], 0, keys.length, keys);
+        return order;
+    }
+
+
+    /**
+     * Stable merge sort of order[from, to) by the keys the positions refer to
+     *
+     * @param order positions to be sorted
+     * @param buffer scratch space as long as order
+     * @param from first index to sort
+     * @param to index after the last one to sort
+     * @param keys keys the positions refer to
+     */
+    private static void mergeSort(int[] order, int[] buffer, int from, int to,
+        double[] keys) {
+        if (to - from < 2)
+            return;
+        int mid = (from + to) >>> 1;
+        mergeSort(order, buffer, from, mid, keys);
+        mergeSort(order, buffer, mid, to, keys);
+        //the halves are already in order
+        if (Double.compare(keys[order[mid - 1]], keys[order[mid]]) <= 0)
+            return;
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < mid
+                && Double.compare(keys[buffer[left]], keys[buffer[right]]) <= 0)) {
+                order[i] = buffer[left++];
+            }
+            else {
+                order[i] = buffer[right++];
+            }
+        }
+    }
+
+
+    /**
+     * Gets the number of entries a node holds when it is filled to the
+     * given fraction of its capacity
+     *
+     * @param capacity maximum number of entries of the node
+     * @param fillFactor fraction of the node to fill
+     * @return number of entries, at least 1 and at most capacity
+     */
+    private static int fillCapacity(int capacity, double fillFactor) {
+        return Math.max(1, Math.min(capacity, (int) Math.ceil(capacity * fillFactor)));
+    }
+
+
+    /**
+     * Gets the number of nodes needed to hold the given number of
+     * entries with at most perNode entries each
+     *
+     * @param entries number of entries
+     * @param perNode entries per node
+     * @return number of nodes
+     */
+    private static int nodeCount(int entries, int perNode) {
+        return (entries + perNode - 1) / perNode;
+    }
+
+
+    /**
+     * Gets the number of entries given to the i-th of nodeCount nodes
+     * when the entries are spread evenly
+     *
+     * @param entries number of entries
+     * @param nodeCount number of nodes
+     * @param i index of the node
+     * @return number of entries for node i
+     */
+    private static int share(int entries, int nodeCount, int i) {
+        return entries / nodeCount + (i < entries % nodeCount ? 1 : 0);
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        Queue<List<Node>> queue = new LinkedList<List<Node>>();
+        queue.add(Arrays.asList(root));
+        StringBuilder sb = new StringBuilder();
+        while (!queue.isEmpty()) {
+            Queue<List<Node>> nextQueue = new LinkedList<List<Node>>();
+            while (!queue.isEmpty()) {
+                List<Node> nodes = queue.remove();
+                sb.append('{');
+                Iterator<Node> it = nodes.iterator();
+                while (it.hasNext()) {
+                    Node node = it.next();
+                    sb.append(node.toString());
+                    if (it.hasNext())
+                        sb.append(", ");
+                    if (node instanceof InternalNode) {
+                        InternalNode internal = (InternalNode) node;
+                        nextQueue.add(Arrays.asList(internal.children)
+                            .subList(0, internal.keyCount + 1));
+                    }
+                }
+                sb.append('}');
+                if (!queue.isEmpty())
+                    sb.append(", ");
+                else {
+                    sb.append('\n');
+                }
+            }
+            queue = nextQueue;
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * This abstract class represents any type of node in the tree.
+     * Nodes are static so the node arrays need no generic array creation;
+     * each node is sized for one entry more than it may keep, which is
+     * the overflow that triggers a split.
+     */
+    private static abstract class Node {
+
+        // Keys in use are keys[0, keyCount)
+        double[] keys;
+        int keyCount;
+
+        // Sum of every key stored in the leaves of the subtree. It is
+        // recomputed from the keys or children rather than adjusted, so
+        // rounding errors and infinite keys never accumulate.
+        double keySum;
+
+        /**
+         * Package constructor
+         *
+         * @param branchingFactor
+         */
+        Node(int branchingFactor) {
+            this.keys = new double[branchingFactor];
+        }
+
+        /**
+         * Inserts key and value in the appropriate leaf node
+         * and splits nodes that overflow on the way back up
+         *
+         * @param key
+         * @param value
+         * @return the new right sibling if this node was split, otherwise null
+         */
+        abstract Node insert(double key, Object value);
+
+        /**
+         * Gets the first leaf key of the subtree
+         *
+         * @return key
+         */
+        abstract double getFirstLeafKey();
+
+        /**
+         * Gets the leaf node holding the first key that lies above
+         * the given lower bound
+         *
+         * @param lowKey lower bound
+         * @param lowInclusive true if keys equal to lowKey are included
+         * @return LeafNode
+         */
+        abstract LeafNode findLeaf(double lowKey, boolean lowInclusive);
+
+        /**
+         * Removes one occurrence of the key and value from the subtree,
+         * rebalancing the children that underflow
+         *
+         * @param key
+         * @param value
+         * @return true if the pair was found and removed
+         */
+        abstract boolean remove(double key, Object value);
+
+        /**
+         *
+         * @return true if the node is less than half full
+         */
+        abstract boolean isUnderflow();
+
+        /**
+         * Changes the key of one occurrence of oldKey and value to newKey
+         * when that keeps the leaf in order
+         *
+         * @param oldKey key the value is stored under
+         * @param newKey key the value should be stored under
+         * @param value
+         * @return UPDATED if the key was replaced in place, MOVED if the
+         * pair was found but has to move, NOT_FOUND otherwise
+         */
+        abstract int update(double oldKey, double newKey, Object value);
+
+        /**
+         * Gets the number of entries stored in the subtree
+         *
+         * @return number of entries
+         */
+        abstract int size();
+
+        /**
+         * Counts the entries of the subtree that come before the first
+         * key lying above the given lower bound
+         *
+         * @param lowKey lower bound
+         * @param lowInclusive true if keys equal to lowKey lie above the bound
+         * @return number of entries below the bound
+         */
+        abstract int rank(double lowKey, boolean lowInclusive);
+
+        /**
+         * Adds up the keys of the subtree that lie between the two bounds
+         *
+         * @param lowKey lower bound
+         * @param lowInclusive true if keys equal to lowKey are included
+         * @param highKey upper bound
+         * @param highInclusive true if keys equal to highKey are included
+         * @return sum of the keys in the range
+         */
+        abstract double sum(double lowKey, boolean lowInclusive,
+            double highKey, boolean highInclusive);
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = 0; i < keyCount; i++) {
+                if (i > 0)
+                    sb.append(", ");
+                sb.append(keys[i]);
+            }
+            return sb.append(']').toString();
+        }
+
+    } // End of abstract class Node
+
+
+    /**
+     * This class represents an internal node of the tree.
+     */
+    private static class InternalNode extends Node {
+
+        // Children in use are children[0, keyCount + 1)
+        Node[] children;
+
+        // Number of entries stored in the leaves below this node
+        int count;
+
+        /**
+         * Package constructor
+         *
+         * @param branchingFactor
+         */
+        InternalNode(int branchingFactor) {
+            super(branchingFactor);
+            this.children = new Node[branchingFactor + 1];
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see DoubleBPTree.Node#getFirstLeafKey()
+         */
+        double getFirstLeafKey() {
+            return children[0].getFirstLeafKey();
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see DoubleBPTree.Node#insert(double, java.lang.Object)
+         */
+        Node insert(double key, Object value) {
+            //equal keys go right of an equal separator, as in BPTree
+            int childLocation = upperBound(keys, keyCount, key);
+            Node newSibling = children[childLocation].insert(key, value);
+            if (newSibling == null) {
+                recount();
+                return null;
+            }
+
+            //the new sibling goes directly right of the split child
+            System.arraycopy(keys, childLocation, keys, childLocation + 1,
+                keyCount - childLocation);
+            System.arraycopy(children, childLocation + 1, children, childLocation + 2,
+                keyCount - childLocation);
+            keys[childLocation] = newSibling.getFirstLeafKey();
+            children[childLocation + 1] = newSibling;
+            keyCount++;
+
+            //more children than the branching factor allows
+            if (keyCount == keys.length)
+                return split();
+            recount();
+            return null;
+        }
+
+        /**
+         * Moves the upper half of the keys and children to a new sibling
+         *
+         * @return the new sibling
+         */
+        Node split() {
+            int start = keyCount / 2 + 1;
+            InternalNode newSibling = new InternalNode(keys.length);
+            newSibling.keyCount = keyCount - start;
+            System.arraycopy(keys, start, newSibling.keys, 0, newSibling.keyCount);
+            System.arraycopy(children, start, newSibling.children, 0,
+                newSibling.keyCount + 1);
+            //keys[start - 1] is dropped, the parent uses the first leaf key instead
+            Arrays.fill(children, start, keyCount + 1, null);
+            keyCount = start - 1;
+            recount();
+            newSibling.recount();
+            return newSibling;
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see DoubleBPTree.Node#isUnderflow()
+         */
+        boolean isUnderflow() {
+            return keyCount + 1 < (keys.length + 1) / 2;
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see DoubleBPTree.Node#remove(double, java.lang.Object)
+         */
+        boolean remove(double key, Object value) {
+            //duplicates of key may span several children, starting at
+            //the child left of the first separator >= key
+            int childLocation = lowerBound(keys, keyCount, key);
+            while (true) {
+                Node child = children[childLocation];
+                if (child.remove(key, value)) {
+                    if (child.isUnderflow()) {
+                        //rebalance with the left sibling, or the right one for the first child
+                        rebalance(childLocation > 0 ? childLocation - 1 : childLocation);
+                    }
+                    recount();
+                    return true;
+                }
+                //the next child can only hold key if its separator equals key
+                if (childLocation < keyCount
+                    && Double.compare(keys[childLocation], key) <= 0) {
+                    childLocation++;
+                }
+                else {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Rebalances two adjacent children after one of them underflowed,
+         * merging them when they fit in one node and otherwise moving
+         * one entry from the fuller child to the other
+         *
+         * @param leftLocation index of the left one of the two children
+         */
+        void rebalance(int leftLocation) {
+            if (leftLocation + 1 > keyCount)
+                return;
+            Node left = children[leftLocation];
+            Node right = children[leftLocation + 1];
+            int branchingFactor = keys.length;
+            if (left instanceof LeafNode) {
+                LeafNode leftLeaf = (LeafNode) left;
+                LeafNode rightLeaf = (LeafNode) right;
+                if (leftLeaf.keyCount + rightLeaf.keyCount <= branchingFactor - 1) {
+                    //merge the right leaf into the left one and unlink it
+                    System.arraycopy(rightLeaf.keys, 0, leftLeaf.keys, leftLeaf.keyCount,
+                        rightLeaf.keyCount);
+                    System.arraycopy(rightLeaf.values, 0, leftLeaf.values, leftLeaf.keyCount,
+                        rightLeaf.keyCount);
+                    leftLeaf.keyCount += rightLeaf.keyCount;
+                    leftLeaf.resum();
+                    leftLeaf.next = rightLeaf.next;
+                    if (rightLeaf.next != null) {
+                        rightLeaf.next.previous = leftLeaf;
+                    }
+                    removeChild(leftLocation);
+                }
+                else {
+                    if (leftLeaf.keyCount > rightLeaf.keyCount) {
+                        //borrow the last entry of the left leaf
+                        int last = leftLeaf.keyCount - 1;
+                        rightLeaf.insertAt(0, leftLeaf.keys[last], leftLeaf.values[last]);
+                        leftLeaf.removeAt(last);
+                    }
+                    else {
+                        //borrow the first entry of the right leaf
+                        leftLeaf.insertAt(leftLeaf.keyCount, rightLeaf.keys[0],
+                            rightLeaf.values[0]);
+                        rightLeaf.removeAt(0);
+                    }
+                    keys[leftLocation] = rightLeaf.keys[0];
+                }
+            }
+            else {
+                InternalNode leftNode = (InternalNode) left;
+                InternalNode rightNode = (InternalNode) right;
+                if (leftNode.keyCount + rightNode.keyCount + 2 <= branchingFactor) {
+                    //merge the right node and the separator into the left node
+                    leftNode.keys[leftNode.keyCount] = keys[leftLocation];
+                    System.arraycopy(rightNode.keys, 0, leftNode.keys, leftNode.keyCount + 1,
+                        rightNode.keyCount);
+                    System.arraycopy(rightNode.children, 0, leftNode.children,
+                        leftNode.keyCount + 1, rightNode.keyCount + 1);
+                    leftNode.keyCount += rightNode.keyCount + 1;
+                    leftNode.recount();
+                    removeChild(leftLocation);
+                }
+                else if (leftNode.keyCount > rightNode.keyCount) {
+                    //rotate the last child of the left node through the separator
+                    System.arraycopy(rightNode.keys, 0, rightNode.keys, 1, rightNode.keyCount);
+                    System.arraycopy(rightNode.children, 0, rightNode.children, 1,
+                        rightNode.keyCount + 1);
+                    rightNode.keys[0] = keys[leftLocation];
+                    rightNode.children[0] = leftNode.children[leftNode.keyCount];
+                    rightNode.keyCount++;
+                    keys[leftLocation] = leftNode.keys[leftNode.keyCount - 1];
+                    leftNode.children[leftNode.keyCount] = null;
+                    leftNode.keyCount--;
+                    leftNode.recount();
+                    rightNode.recount();
+                }
+                else {
+                    //rotate the first child of the right node through the separator
+                    leftNode.keys[leftNode.keyCount] = keys[leftLocation];
+                    leftNode.children[leftNode.keyCount + 1] = rightNode.children[0];
+                    leftNode.keyCount++;
+                    keys[leftLocation] = rightNode.keys[0];
+                    System.arraycopy(rightNode.keys, 1, rightNode.keys, 0,
+                        rightNode.keyCount - 1);
+                    System.arraycopy(rightNode.children, 1, rightNode.children, 0,
+                        rightNode.keyCount);
+                    rightNode.children[rightNode.keyCount] = null;
+                    rightNode.keyCount--;
+                    leftNode.recount();
+                    rightNode.recount();
+                }
+            }
+        }
+
+        /**
+         * Removes the separator keys[keyLocation] and the child right of it
+         *
+         * @param keyLocation index of the separator
+         */
+        void removeChild(int keyLocation) {
+            System.arraycopy(keys, keyLocation + 1, keys, keyLocation,
+                keyCount - keyLocation - 1);
+            System.arraycopy(children, keyLocation + 2, children, keyLocation + 1,
+                keyCount - keyLocation - 1);
+            children[keyCount] = null;
+            keyCount--;
+        }
+
+        /**
+         * Recomputes the entry count and key sum from the children after
+         * an entry below this node changed
+         */
+        void recount() {
+            count = 0;
+            keySum = 0;
+            for (int i = 0; i <= keyCount; i++) {
+                count += children[i].size();
+                keySum += children[i].keySum;
+            }
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see DoubleBPTree.Node#update(double, double, java.lang.Object)
+         */
+        int update(double oldKey, double newKey, Object value) {
+            //search the children that may hold oldKey, as remove does
+            int childLocation = lowerBound(keys, keyCount, oldKey);
+            while (true) {
+                int result = children[childLocation].update(oldKey, newKey, value);
+                if (result != NOT_FOUND) {
+                    if (result == UPDATED)
+                        recount();
+                    return result;
+                }
+                if (childLocation < keyCount
+                    && Double.compare(keys[childLocation], oldKey) <= 0) {
+                    childLocation++;
+                }
+                else {
+                    return NOT_FOUND;
+                }
+            }
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see DoubleBPTree.Node#size()
+         */
+        int size() {
+            return count;
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see DoubleBPTree.Node#rank(double, boolean)
+         */
+        int rank(double lowKey, boolean lowInclusive) {
+            //every child left of the one findLeaf descends to lies below the bound
+            int childLocation = firstSlot(keys, keyCount, lowKey, lowInclusive);
+            int rank = 0;
+            for (int i = 0; i < childLocation; i++) {
+                rank += children[i].size();
+            }
+            return rank + children[childLocation].rank(lowKey, lowInclusive);
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see DoubleBPTree.Node#sum(double, boolean, double, boolean)
+         */
+        double sum(double lowKey, boolean lowInclusive,
+            double highKey, boolean highInclusive) {
+            //children strictly between the ones holding the two bounds lie
+            //wholly in the range, so only the two boundary children are entered
+            int first = firstSlot(keys, keyCount, lowKey, lowInclusive);
+            int last = firstSlot(keys, keyCount, highKey, !highInclusive);
+            if (first == last)
+                return children[first].sum(lowKey, lowInclusive, highKey, highInclusive);
+            double sum = children[first].sum(lowKey, lowInclusive,
+                Double.POSITIVE_INFINITY, true);
+            for (int i = first + 1; i < last; i++) {
+                sum += children[i].keySum;
+            }
+            return sum + children[last].sum(Double.NEGATIVE_INFINITY, true,
+                highKey, highInclusive);
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see DoubleBPTree.Node#findLeaf(double, boolean)
+         */
+        LeafNode findLeaf(double lowKey, boolean lowInclusive) {
+            //duplicates of lowKey may sit left of an equal separator, so
+            //descend to the child left of the first separator in the range
+            int childLocation = firstSlot(keys, keyCount, lowKey, lowInclusive);
+            return children[childLocation].findLeaf(lowKey, lowInclusive);
+        }
+
+    } // End of class InternalNode
+
+
+    /**
+     * This class represents a leaf node of the tree.
+     */
+    private static class LeafNode extends Node {
+
+        // Values in use are values[0, keyCount)
+        Object[] values;
+
+        // Reference to the next leaf node
+        LeafNode next;
+
+        // Reference to the previous leaf node
+        LeafNode previous;
+
+        /**
+         * Package constructor
+         *
+         * @param branchingFactor
+         */
+        LeafNode(int branchingFactor) {
+            super(branchingFactor);
+            this.values = new Object[branchingFactor];
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see DoubleBPTree.Node#getFirstLeafKey()
+         */
+        double getFirstLeafKey() {
+            return keys[0];
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see DoubleBPTree.Node#insert(double, java.lang.Object)
+         */
+        Node insert(double key, Object value) {
+            //equal keys are kept in insertion order
+            insertAt(upperBound(keys, keyCount, key), key, value);
+
+            //more keys than the branching factor allows
+            return keyCount == keys.length ? split() : null;
+        }
+
+        /**
+         * Moves the upper half of the keys and values to a new sibling
+         *
+         * @return the new sibling
+         */
+        Node split() {
+            LeafNode newSibling = new LeafNode(keys.length);
+            int start = (keyCount + 1) / 2;
+            newSibling.keyCount = keyCount - start;
+            System.arraycopy(keys, start, newSibling.keys, 0, newSibling.keyCount);
+            System.arraycopy(values, start, newSibling.values, 0, newSibling.keyCount);
+            Arrays.fill(values, start, keyCount, null);
+            keyCount = start;
+            resum();
+            newSibling.resum();
+            //update the next sibling in the list after the split
+            newSibling.next = this.next;
+            newSibling.previous = this;
+            if (this.next != null) {
+                this.next.previous = newSibling;
+            }
+            this.next = newSibling;
+            return newSibling;
+        }
+
+        /**
+         * Inserts the key and value at the given slot
+         *
+         * @param slot index the pair is inserted at
+         * @param key
+         * @param value
+         */
+        void insertAt(int slot, double key, Object value) {
+            System.arraycopy(keys, slot, keys, slot + 1, keyCount - slot);
+            System.arraycopy(values, slot, values, slot + 1, keyCount - slot);
+            keys[slot] = key;
+            values[slot] = value;
+            keyCount++;
+            resum();
+        }
+
+        /**
+         * Removes the key and value at the given slot
+         *
+         * @param slot index of the pair to be removed
+         */
+        void removeAt(int slot) {
+            System.arraycopy(keys, slot + 1, keys, slot, keyCount - slot - 1);
+            System.arraycopy(values, slot + 1, values, slot, keyCount - slot - 1);
+            keyCount--;
+            values[keyCount] = null;
+            resum();
+        }
+
+        /**
+         * Recomputes the key sum after the keys of this leaf changed
+         */
+        void resum() {
+            keySum = 0;
+            for (int i = 0; i < keyCount; i++) {
+                keySum += keys[i];
+            }
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see DoubleBPTree.Node#isUnderflow()
+         */
+        boolean isUnderflow() {
+            return keyCount < keys.length / 2;
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see DoubleBPTree.Node#remove(double, java.lang.Object)
+         */
+        boolean remove(double key, Object value) {
+            //look through the keys equal to key for the value
+            for (int i = lowerBound(keys, keyCount, key); i < keyCount; i++) {
+                if (Double.compare(keys[i], key) != 0) {
+                    return false;
+                }
+                if (Objects.equals(values[i], value)) {
+                    removeAt(i);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see DoubleBPTree.Node#findLeaf(double, boolean)
+         */
+        LeafNode findLeaf(double lowKey, boolean lowInclusive) {
+            return this;
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see DoubleBPTree.Node#update(double, double, java.lang.Object)
+         */
+        int update(double oldKey, double newKey, Object value) {
+            //look through the keys equal to oldKey for the value
+            for (int i = lowerBound(keys, keyCount, oldKey); i < keyCount; i++) {
+                if (Double.compare(keys[i], oldKey) != 0) {
+                    return NOT_FOUND;
+                }
+                if (Objects.equals(values[i], value)) {
+                    //a key between its neighbours in the same leaf keeps the
+                    //leaf sorted and within its separators
+                    if (i > 0 && i < keyCount - 1
+                        && Double.compare(keys[i - 1], newKey) <= 0
+                        && Double.compare(keys[i + 1], newKey) >= 0) {
+                        keys[i] = newKey;
+                        resum();
+                        return UPDATED;
+                    }
+                    return MOVED;
+                }
+            }
+            return NOT_FOUND;
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see DoubleBPTree.Node#size()
+         */
+        int size() {
+            return keyCount;
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see DoubleBPTree.Node#rank(double, boolean)
+         */
+        int rank(double lowKey, boolean lowInclusive) {
+            return firstSlot(keys, keyCount, lowKey, lowInclusive);
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see DoubleBPTree.Node#sum(double, boolean, double, boolean)
+         */
+        double sum(double lowKey, boolean lowInclusive,
+            double highKey, boolean highInclusive) {
+            double sum = 0;
+            int end = firstSlot(keys, keyCount, highKey, !highInclusive);
+            for (int i = firstSlot(keys, keyCount, lowKey, lowInclusive); i < end; i++) {
+                sum += keys[i];
+            }
+            return sum;
+        }
+
+    } // End of class LeafNode
+
+
+    /**
+     * This class walks the leaf chain between two bounds one value
+     * at a time. Splitting is inherited from AbstractSpliterator, which
+     * hands batches of values to the new spliterator.
+     */
+    private class RangeSpliterator extends Spliterators.AbstractSpliterator<V> {
+
+        // Leaf and slot of the next value, current is null once exhausted
+        LeafNode current;
+        int slot;
+
+        // Upper bound of the range
+        double highKey;
+        boolean highInclusive;
+
+        /**
+         * Package constructor, descends to the first value in the range
+         *
+         * @param lowKey lower bound
+         * @param lowInclusive true if keys equal to lowKey are included
+         * @param highKey upper bound
+         * @param highInclusive true if keys equal to highKey are included
+         */
+        RangeSpliterator(double lowKey, boolean lowInclusive,
+            double highKey, boolean highInclusive) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED);
+            this.highKey = highKey;
+            this.highInclusive = highInclusive;
+            int compareValue = Double.compare(lowKey, highKey);
+            //an inverted or empty range cannot match anything
+            if (compareValue < 0 || (compareValue == 0 && lowInclusive && highInclusive)) {
+                current = root.findLeaf(lowKey, lowInclusive);
+                slot = firstSlot(current.keys, current.keyCount, lowKey, lowInclusive);
+            }
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see java.util.Spliterator#tryAdvance(java.util.function.Consumer)
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super V> action) {
+            //skip to the next leaf at the end of this one
+            while (current != null && slot == current.keyCount) {
+                current = current.next;
+                slot = 0;
+            }
+            if (current == null)
+                return false;
+            int compareValue = Double.compare(current.keys[slot], highKey);
+            if (compareValue > 0 || (compareValue == 0 && !highInclusive)) {
+                current = null;
+                return false;
+            }
+            action.accept((V) current.values[slot++]);
+            return true;
+        }
+
+    } // End of class RangeSpliterator
+
+} // End of class DoubleBPTree
@@ -5,6 +5,7 @@ import javafx.scene.*;
 import javafx.scene.layout.*;
 import javafx.scene.control.*;
 import java.util.ArrayList;
+import java.util.List;
 import javafx.geometry.*;
 /**
  * Filename:   Filter.java
@@ -15,6 +16,8 @@ import javafx.geometry.*;
  */
 public class Filter {
     static Stage window;    //window to be displayed
+    static List<FoodItem> liveMatches;   //food items matching the name as typed so far
+    static String liveSearch;   //name text the live matches are for
 
     /**
      * Displays the window
@@ -38,6 +41,33 @@ public class Filter {
         Label nameFilter = new Label("Enter Text to Filter Food Names: ");
         TextField nameField = new TextField();
         nameField.setPromptText("<key word>");
+        //create items to show the matching names while typing
+        CheckBox liveBox = new CheckBox("Show Matching Names While Typing");
+        Label liveCount = new Label();
+        ListView<String> liveList = new ListView<String>();
+        liveList.setPrefHeight(120);
+        liveList.setVisible(false);
+        liveList.setManaged(false);
+        liveMatches = null;
+        liveSearch = null;
+        liveBox.setOnAction(event -> {
+            liveList.setVisible(liveBox.isSelected());
+            liveList.setManaged(liveBox.isSelected());
+            if (liveBox.isSelected()) {
+                showMatches(nameField.getText(), liveList, liveCount);
+            }
+            else {
+                //the matches go stale while not typing live
+                liveMatches = null;
+                liveSearch = null;
+                liveList.getItems().clear();
+                liveCount.setText("");
+            }
+        });
+        //each keystroke narrows the matches of the one before when it can
+        nameField.textProperty().addListener((observable, oldText, newText) -> {
+            if (liveBox.isSelected()) showMatches(newText, liveList, liveCount);
+        });
         //create items for the nutrient query
         Label nutrientFilter = new Label("Enter Nutrient Information to add to Filter List: ");
         TextField nutrientField = new TextField();
@@ -124,14 +154,49 @@ public class Filter {
         //display the window
         grid.add(nameFilter,0,0);
         grid.add(nameField, 0,1);
-        grid.add(nutrientFilter,0,2);
-        grid.add(nutrientField,0,3);
-        grid.add(addNutrientBtn, 0,4);
-        grid.add(nutrientList,0,5);
-        grid.add(btn,0,6);
+        grid.add(liveBox, 0,2);
+        grid.add(liveCount, 0,3);
+        grid.add(liveList, 0,4);
+        grid.add(nutrientFilter,0,5);
+        grid.add(nutrientField,0,6);
+        grid.add(addNutrientBtn, 0,7);
+        grid.add(nutrientList,0,8);
+        grid.add(btn,0,9);
         Scene scene = new Scene(grid);
         window.setScene(scene);
         window.showAndWait();
 
     }
+
+    /**
+     * Shows the names of the food items matching the typed text. A text
+     * extending the one before only checks the food items that matched
+     * it, so each keystroke takes time proportional to the matches shown
+     * rather than to the whole food list.
+     *
+     * @param text the text in the name field
+     * @param liveList list to show the matching names in
+     * @param liveCount label to show the number of matching names in
+     */
+    private static void showMatches(String text, ListView<String> liveList, Label liveCount) {
+        String nameSearch = text.trim().toLowerCase();
+        if (nameSearch.equals("")) {
+            //an empty name filters nothing, so there is nothing to show
+            liveMatches = null;
+            liveSearch = null;
+            liveList.getItems().clear();
+            liveCount.setText("");
+            return;
+        }
+        liveMatches = Main.foodData.refineByName(liveMatches, liveSearch, nameSearch);
+        liveSearch = nameSearch;
+        //the matches are sorted by name, so repeated names are next to each other
+        ArrayList<String> names = new ArrayList<String>();
+        for (FoodItem foodItem : liveMatches) {
+            String name = foodItem.getName().toLowerCase();
+            if (names.isEmpty() || !names.get(names.size() - 1).equals(name)) names.add(name);
+        }
+        liveList.getItems().setAll(names);
+        liveCount.setText("Matching Food Names: " + names.size());
+    }
 }
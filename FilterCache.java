@@ -0,0 +1,208 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Filename:   application.FilterCache.java
+ * Project:    Food Query
+ * Authors:    Amanda Sarsha, Tanner Bart, Xuefeng Xu, David Berman
+ *
+ * A bounded cache of filter results, keyed by a canonical form of the
+ * filter and evicting the least recently used results first.
+ *
+ * Every result is weighed by the number of food items it holds, plus
+ * one, and the cache keeps the total weight under a limit. Each result
+ * comes with the filter as a predicate, so a change to one food item
+ * drops only the results the food item enters or leaves; every other
+ * result stays valid.
+ *
+ * Every method is synchronized, as a lookup reorders the results and
+ * filters may run on background threads while the window filters names
+ * as they are typed.
+ */
+public class FilterCache {
+
+    // Results by canonical filter, least recently used first
+    private final LinkedHashMap<String, Entry> entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    // Largest total weight kept
+    private final long maxWeight;
+
+    // Total weight of the cached results
+    private long weight;
+
+    // Number of lookups that found a result and that did not
+    private long hits;
+    private long misses;
+
+
+    /**
+     * A cached result and the filter that produced it
+     */
+    private static class Entry {
+        private final List<FoodItem> items;
+        private final Predicate<FoodItem> filter;
+
+        private Entry(List<FoodItem> items, Predicate<FoodItem> filter) {
+            this.items = items;
+            this.filter = filter;
+        }
+
+        private long weight() {
+            return items.size() + 1L;
+        }
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param maxWeight largest total weight to keep, 0 to cache nothing
+     */
+    public FilterCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+
+    /**
+     * Gets a copy of the cached result of a filter, marking it as
+     * recently used
+     *
+     * @param key canonical form of the filter
+     * @return copy of the result, or null if it is not cached
+     */
+    public synchronized List<FoodItem> get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return new ArrayList<FoodItem>(entry.items);
+    }
+
+
+    /**
+     * Caches the result of a filter, evicting the least recently used
+     * results until the total weight is within the limit. A result
+     * heavier than the limit on its own is not cached.
+     *
+     * @param key canonical form of the filter
+     * @param items the result; a copy is kept
+     * @param filter true for exactly the food items the filter returns
+     */
+    public synchronized void put(String key, List<FoodItem> items, Predicate<FoodItem> filter) {
+        Entry entry = new Entry(new ArrayList<FoodItem>(items), filter);
+        if (entry.weight() > maxWeight) return;
+        Entry old = entries.put(key, entry);
+        if (old != null) weight -= old.weight();
+        weight += entry.weight();
+        Iterator<Entry> it = entries.values().iterator();
+        while (weight > maxWeight) {
+            weight -= it.next().weight();
+            it.remove();
+        }
+    }
+
+
+    /**
+     * Drops the results that hold the food item, for when it is added
+     * or removed
+     *
+     * @param food the food item
+     */
+    public synchronized void invalidate(FoodItem food) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.filter.test(food)) {
+                weight -= entry.weight();
+                it.remove();
+            }
+        }
+    }
+
+
+    /**
+     * Finds the results that hold the food item, to be compared with
+     * the ones holding it after a change with invalidateChanged
+     *
+     * @param food the food item
+     * @return keys of the results the food item is in
+     */
+    public synchronized List<String> holding(FoodItem food) {
+        List<String> keys = new ArrayList<String>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().filter.test(food)) keys.add(entry.getKey());
+        }
+        return keys;
+    }
+
+
+    /**
+     * Drops the results a changed food item entered or left. A result
+     * holding the food item before and after the change is still valid,
+     * since it holds the food item itself.
+     *
+     * @param food the changed food item
+     * @param before keys holding the food item before the change
+     */
+    public synchronized void invalidateChanged(FoodItem food, List<String> before) {
+        HashSet<String> held = new HashSet<String>(before);
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> entry = it.next();
+            if (held.contains(entry.getKey()) != entry.getValue().filter.test(food)) {
+                weight -= entry.getValue().weight();
+                it.remove();
+            }
+        }
+    }
+
+
+    /**
+     * Drops every result, for when all the food items are replaced
+     */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+
+    /**
+     * Gets the number of lookups that found a cached result
+     *
+     * @return number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+
+    /**
+     * Gets the number of lookups that found no cached result
+     *
+     * @return number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+
+    /**
+     * Gets the number of cached results
+     *
+     * @return number of results
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+}
@@ -0,0 +1,524 @@
+package application;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Filename:   application.FoodCsvParser.java
+ * Project:    Food Query
+ * Authors:    Amanda Sarsha, Tanner Bart, Xuefeng Xu, David Berman
+ *
+ * Parses food item files in the format described in FoodDataADT.
+ *
+ * The file is read in large chunks of bytes and fields are found by
+ * scanning for commas and line ends directly, so no Scanner, regex or
+ * per-line String is involved. Nutrient names are matched against the
+ * known nutrients byte by byte, ignoring case, and plain decimal values
+ * are parsed from the bytes without building a String. Only ids and
+ * names become Strings, since FoodItem keeps them.
+ *
+ * A file can also be memory-mapped and parsed in place, one chunk at a
+ * time or with the chunks, which are split at line breaks, parsed in
+ * parallel.
+ *
+ * Every way of parsing can report its progress as the number of bytes
+ * parsed so far, and stops with an InterruptedIOException once its
+ * thread is interrupted.
+ */
+public class FoodCsvParser {
+
+    // Size of the chunks the file is read in
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Size of the chunks a file is split into for parallel parsing
+    private static final int CHUNK_SIZE = 1 << 23;
+
+    // Names of the nutrients read from the file, as FoodItem stores them
+    private static final String[] NUTRIENTS =
+        {"calories", "fat", "carbohydrate", "fiber", "protein"};
+
+    // Largest mantissa that is an exact double
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    // Powers of ten that are exact doubles
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    // Charset of ids and names, the one FileReader used for the file
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+
+    /**
+     * Private constructor, the class only has static methods
+     */
+    private FoodCsvParser() {
+    }
+
+
+    /**
+     * Reads every food item from a stream
+     *
+     * @param in stream of a food item file
+     * @return food items in file order, lines with an empty id skipped
+     * @throws IOException if the stream cannot be read
+     * @throws NumberFormatException if a nutrient value is not a number
+     */
+    public static List<FoodItem> parse(InputStream in) throws IOException {
+        return parse(in, bytes -> { });
+    }
+
+
+    /**
+     * Reads every food item from a stream, reporting the bytes parsed
+     * after each read
+     *
+     * @param in stream of a food item file
+     * @param progress told the number of bytes read so far
+     * @return food items in file order, lines with an empty id skipped
+     * @throws IOException if the stream cannot be read
+     * @throws InterruptedIOException if the thread is interrupted
+     * @throws NumberFormatException if a nutrient value is not a number
+     */
+    public static List<FoodItem> parse(InputStream in, LongConsumer progress) throws IOException {
+        List<FoodItem> items = new ArrayList<FoodItem>();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int length = 0; // bytes in the buffer, starting with a partial line
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+            checkInterrupted();
+            length += read;
+            total += read;
+            int parsed = parseLines(buffer, 0, length, false, items);
+            //keep the partial last line, growing the buffer for long lines
+            length -= parsed;
+            System.arraycopy(buffer, parsed, buffer, 0, length);
+            if (length == buffer.length)
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            progress.accept(total);
+        }
+        parseLines(buffer, 0, length, true, items);
+        return items;
+    }
+
+
+    /**
+     * Reads every food item from a file by memory-mapping it and parsing
+     * the bytes in place, so the file is never copied into a buffer of
+     * its own. The file is mapped one chunk at a time, which keeps each
+     * mapping below the 2 GB a MappedByteBuffer can hold.
+     *
+     * @param path path of a food item file
+     * @return food items in file order, lines with an empty id skipped
+     * @throws IOException if the file cannot be mapped
+     * @throws NumberFormatException if a nutrient value is not a number
+     */
+    public static List<FoodItem> parse(Path path) throws IOException {
+        return parse(path, bytes -> { });
+    }
+
+
+    /**
+     * Reads every food item from a file by memory-mapping it one chunk
+     * at a time, reporting the bytes parsed after each chunk
+     *
+     * @param path path of a food item file
+     * @param progress told the offset of the end of each chunk parsed
+     * @return food items in file order, lines with an empty id skipped
+     * @throws IOException if the file cannot be mapped
+     * @throws InterruptedIOException if the thread is interrupted
+     * @throws NumberFormatException if a nutrient value is not a number
+     */
+    public static List<FoodItem> parse(Path path, LongConsumer progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            List<Long> starts = chunkStarts(channel);
+            List<FoodItem> items = new ArrayList<FoodItem>();
+            for (int i = 0; i + 1 < starts.size(); i++) {
+                checkInterrupted();
+                items.addAll(parseChunk(channel, starts.get(i), starts.get(i + 1)));
+                progress.accept(starts.get(i + 1));
+            }
+            return items;
+        }
+    }
+
+
+    /**
+     * Reads every food item from a file, parsing chunks of it in parallel.
+     * The chunks end at line breaks and their items are joined in file
+     * order, so the result is the same as from parse(InputStream).
+     *
+     * @param path path of a food item file
+     * @param executor executor running one task per chunk
+     * @return food items in file order, lines with an empty id skipped
+     * @throws IOException if the file cannot be read
+     * @throws NumberFormatException if a nutrient value is not a number
+     */
+    public static List<FoodItem> parse(Path path, ExecutorService executor) throws IOException {
+        return parse(path, executor, bytes -> { });
+    }
+
+
+    /**
+     * Reads every food item from a file, parsing chunks of it in parallel
+     * and reporting the bytes parsed as each chunk is done
+     *
+     * @param path path of a food item file
+     * @param executor executor running one task per chunk
+     * @param progress told the total size of the chunks parsed so far,
+     *        from the threads of the executor
+     * @return food items in file order, lines with an empty id skipped
+     * @throws IOException if the file cannot be read
+     * @throws InterruptedIOException if the thread is interrupted
+     * @throws NumberFormatException if a nutrient value is not a number
+     */
+    public static List<FoodItem> parse(Path path, ExecutorService executor, LongConsumer progress)
+        throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            List<Long> starts = chunkStarts(channel);
+            List<Callable<List<FoodItem>>> tasks = new ArrayList<Callable<List<FoodItem>>>();
+            AtomicLong parsed = new AtomicLong();
+            // the executor need not pass on an interrupt, so each task checks the caller
+            Thread caller = Thread.currentThread();
+            for (int i = 0; i + 1 < starts.size(); i++) {
+                long from = starts.get(i);
+                long to = starts.get(i + 1);
+                tasks.add(() -> {
+                    if (caller.isInterrupted())
+                        throw new InterruptedIOException("Interrupted while parsing " + path);
+                    List<FoodItem> chunk = parseChunk(channel, from, to);
+                    progress.accept(parsed.addAndGet(to - from));
+                    return chunk;
+                });
+            }
+            List<FoodItem> items = new ArrayList<FoodItem>();
+            for (Future<List<FoodItem>> chunk : executor.invokeAll(tasks)) {
+                items.addAll(chunk.get());
+            }
+            checkInterrupted();
+            return items;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing " + path);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            // a ForkJoinPool wraps the IOException of a task in RuntimeExceptions
+            for (Throwable t = cause; t != null; t = t.getCause()) {
+                if (t instanceof IOException)
+                    throw (IOException) t;
+            }
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+
+    /**
+     * Stops parsing once the thread is interrupted, as when a load is
+     * cancelled
+     *
+     * @throws InterruptedIOException if the thread is interrupted
+     */
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedIOException("Interrupted while parsing");
+    }
+
+
+    /**
+     * Splits a file into chunks of about CHUNK_SIZE bytes, each starting
+     * right after a \n. A line longer than a chunk makes its chunk longer.
+     *
+     * @param channel the file
+     * @return offsets of the chunk starts, followed by the file size
+     * @throws IOException if the file cannot be read
+     */
+    private static List<Long> chunkStarts(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<Long> starts = new ArrayList<Long>();
+        starts.add(0L);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = CHUNK_SIZE;
+        while (position < size) {
+            //look for the first line break at or after position
+            long lineBreak = -1;
+            while (lineBreak < 0 && position < size) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0)
+                    break;
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == '\n') {
+                        lineBreak = position + i;
+                        break;
+                    }
+                }
+                if (lineBreak < 0)
+                    position += read;
+            }
+            if (lineBreak < 0 || lineBreak + 1 >= size)
+                break;
+            starts.add(lineBreak + 1);
+            position = lineBreak + 1 + CHUNK_SIZE;
+        }
+        starts.add(size);
+        return starts;
+    }
+
+
+    /**
+     * Maps a chunk of a file and parses its lines in place
+     *
+     * @param channel the file
+     * @param from offset of the first byte of the chunk
+     * @param to offset after the last byte of the chunk
+     * @return food items of the chunk in file order
+     * @throws IOException if the file cannot be mapped
+     */
+    private static List<FoodItem> parseChunk(FileChannel channel, long from, long to)
+        throws IOException {
+        ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        List<FoodItem> items = new ArrayList<FoodItem>();
+        parseLines(bytes, 0, bytes.limit(), true, items);
+        return items;
+    }
+
+
+    /**
+     * Parses the complete lines in bytes[from, to)
+     *
+     * @param bytes bytes of the file
+     * @param from index of the first byte of a line
+     * @param to index after the last byte to parse
+     * @param last true if the bytes end the file, so a last line
+     *        without a line break is complete
+     * @param items list the food items are added to
+     * @return index after the last line parsed
+     */
+    public static int parseLines(byte[] bytes, int from, int to, boolean last,
+        List<FoodItem> items) {
+        return parseLines(ByteBuffer.wrap(bytes), from, to, last, items);
+    }
+
+
+    /**
+     * Parses the complete lines in bytes[from, to), reading the bytes
+     * with absolute gets so a mapped file is parsed in place
+     *
+     * @param bytes bytes of the file
+     * @param from index of the first byte of a line
+     * @param to index after the last byte to parse
+     * @param last true if the bytes end the file, so a last line
+     *        without a line break is complete
+     * @param items list the food items are added to
+     * @return index after the last line parsed
+     */
+    public static int parseLines(ByteBuffer bytes, int from, int to, boolean last,
+        List<FoodItem> items) {
+        int start = from;
+        for (int i = from; i < to; i++) {
+            byte b = bytes.get(i);
+            if (b == '\n' || b == '\r') {
+                //a line break can be \n, \r or \r\n, as for readLine
+                if (b == '\r' && i + 1 == to && !last)
+                    return start;
+                parseLine(bytes, start, i, items);
+                if (b == '\r' && i + 1 < to && bytes.get(i + 1) == '\n')
+                    i++;
+                start = i + 1;
+            }
+        }
+        if (last && start < to) {
+            parseLine(bytes, start, to, items);
+            start = to;
+        }
+        return start;
+    }
+
+
+    /**
+     * Parses one line: id, name, then pairs of nutrient name and value.
+     * Lines with an empty id are skipped, as are nutrients not in
+     * NUTRIENTS.
+     *
+     * @param bytes bytes of the file
+     * @param start index of the first byte of the line
+     * @param end index of the line break
+     * @param items list the food item is added to
+     */
+    private static void parseLine(ByteBuffer bytes, int start, int end, List<FoodItem> items) {
+        int idEnd = nextComma(bytes, start, end);
+        if (idEnd == start)
+            return;
+        String id = decode(bytes, start, idEnd);
+        String name = "";
+        int position = idEnd + 1;
+        if (position <= end) {
+            int nameEnd = nextComma(bytes, position, end);
+            name = decode(bytes, position, nameEnd);
+            position = nameEnd + 1;
+        }
+        FoodItem food = new FoodItem(id, name);
+        //each nutrient name is followed by its value
+        while (position <= end) {
+            int nutrientEnd = nextComma(bytes, position, end);
+            if (nutrientEnd == end)
+                break;
+            int valueEnd = nextComma(bytes, nutrientEnd + 1, end);
+            //a trailing comma leaves the last nutrient without a value
+            if (valueEnd == end && valueEnd == nutrientEnd + 1)
+                break;
+            int nutrient = nutrientIndex(bytes, position, nutrientEnd);
+            if (nutrient >= 0) {
+                food.addNutrient(NUTRIENTS[nutrient],
+                    parseDouble(bytes, nutrientEnd + 1, valueEnd));
+            }
+            position = valueEnd + 1;
+        }
+        items.add(food);
+    }
+
+
+    /**
+     * Gets the index of the next comma
+     *
+     * @param bytes bytes of the file
+     * @param from index to start looking at
+     * @param end index of the line break
+     * @return index of the next comma, or end if there is none
+     */
+    private static int nextComma(ByteBuffer bytes, int from, int end) {
+        while (from < end && bytes.get(from) != ',')
+            from++;
+        return from;
+    }
+
+
+    /**
+     * Finds the nutrient named by bytes[start, end), ignoring case
+     *
+     * @param bytes bytes of the file
+     * @param start index of the first byte of the name
+     * @param end index after the last byte of the name
+     * @return index in NUTRIENTS, or -1 if it is not a known nutrient
+     */
+    private static int nutrientIndex(ByteBuffer bytes, int start, int end) {
+        for (int n = 0; n < NUTRIENTS.length; n++) {
+            String nutrient = NUTRIENTS[n];
+            if (nutrient.length() != end - start)
+                continue;
+            int i = 0;
+            //the nutrient names are lower case ASCII, setting bit 5
+            //lower cases an ASCII letter
+            while (i < nutrient.length() && (bytes.get(start + i) | 0x20) == nutrient.charAt(i))
+                i++;
+            if (i == nutrient.length())
+                return n;
+        }
+        return -1;
+    }
+
+
+    /**
+     * Parses a number the way Double.parseDouble does. Plain decimals
+     * with at most 18 significant digits and 22 decimals are computed
+     * from the digits directly: the mantissa and the power of ten are
+     * both exact doubles, so the single division rounds correctly.
+     * Anything else is handed to Double.parseDouble.
+     *
+     * @param bytes bytes of the file
+     * @param start index of the first byte of the number
+     * @param end index after the last byte of the number
+     * @return the number
+     * @throws NumberFormatException if the bytes are not a number
+     */
+    static double parseDouble(ByteBuffer bytes, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (bytes.get(i) == '-' || bytes.get(i) == '+')) {
+            negative = bytes.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0; // significant digits, leading zeros left out
+        int decimals = 0;
+        boolean point = false;
+        boolean anyDigit = false;
+        for (; i < end; i++) {
+            byte b = bytes.get(i);
+            if (b >= '0' && b <= '9') {
+                if (digits == 18)
+                    return parseSlowly(bytes, start, end);
+                mantissa = mantissa * 10 + (b - '0');
+                if (mantissa != 0)
+                    digits++;
+                if (point)
+                    decimals++;
+                anyDigit = true;
+            }
+            else if (b == '.' && !point) {
+                point = true;
+            }
+            else {
+                //exponents, spaces, NaN, Infinity, hex and type suffixes
+                return parseSlowly(bytes, start, end);
+            }
+        }
+        if (!anyDigit || mantissa > MAX_EXACT_MANTISSA || decimals >= POWERS_OF_TEN.length)
+            return parseSlowly(bytes, start, end);
+        double value = mantissa / POWERS_OF_TEN[decimals];
+        return negative ? -value : value;
+    }
+
+
+    /**
+     * Parses a number with Double.parseDouble
+     *
+     * @param bytes bytes of the file
+     * @param start index of the first byte of the number
+     * @param end index after the last byte of the number
+     * @return the number
+     * @throws NumberFormatException if the bytes are not a number
+     */
+    private static double parseSlowly(ByteBuffer bytes, int start, int end) {
+        return Double.parseDouble(decode(bytes, start, end));
+    }
+
+
+    /**
+     * Decodes bytes[start, end) into a String. Bytes of a mapped file are
+     * copied out first, as a String cannot be built from a ByteBuffer
+     * without a CharsetDecoder.
+     *
+     * @param bytes bytes of the file
+     * @param start index of the first byte
+     * @param end index after the last byte
+     * @return the decoded String
+     */
+    private static String decode(ByteBuffer bytes, int start, int end) {
+        if (bytes.hasArray())
+            return new String(bytes.array(), bytes.arrayOffset() + start, end - start, CHARSET);
+        byte[] copy = new byte[end - start];
+        for (int i = 0; i < copy.length; i++)
+            copy[i] = bytes.get(start + i);
+        return new String(copy, CHARSET);
+    }
+
+}
@@ -1,7 +1,24 @@
 package application;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
 
 /**
  * Filename:   application.FoodData.java
@@ -16,24 +33,261 @@ public class FoodData implements FoodDataADT<FoodItem> {
     // List of all the food items.
     private List<FoodItem> foodItemList;
 
+    // Position of every food item in foodItemList, by identity
+    private IdentityHashMap<FoodItem, Integer> positions;
+
+    // Names of the nutrients every food item has an index for, in Nutrient order
+    private static final String[] NUTRIENTS =
+        {"calories", "fat", "carbohydrate", "fiber", "protein"};
+
+    // Fraction of each index node filled when indexes are bulk loaded,
+    // leaving room for later additions before nodes split
+    private static final double INDEX_FILL_FACTOR = 0.75;
+
+    // Branching factor of an index unless configured otherwise. 64 double
+    // keys fill eight 64-byte cache lines, so a node is searched within a
+    // few lines and a 1M-item index is only four levels deep
+    public static final int DEFAULT_BRANCHING_FACTOR = 64;
+
+    // Branching factor value asking for the fanout to be tuned at load time
+    public static final int AUTO_BRANCHING_FACTOR = 0;
+
+    // System property setting the branching factor of every index, and the
+    // prefix of the per-index properties, e.g. foodquery.branchingFactor.fat;
+    // values are a number greater than 2 or "auto"
+    public static final String BRANCHING_FACTOR_PROPERTY = "foodquery.branchingFactor";
+
+    // Fanouts tried when tuning and the number of lookups timed for each
+    private static final int[] TUNING_CANDIDATES = {16, 32, 64, 128, 256};
+    private static final int TUNING_LOOKUPS = 2000;
+
+    // Suffix of the index file saved next to a CSV file, and the magic
+    // number and format version in its header page
+    public static final String INDEX_FILE_SUFFIX = ".idx";
+    private static final int INDEX_FILE_MAGIC = 0x46514958;
+    private static final int INDEX_FILE_VERSION = 2;
+
+    // Size of the buffer a CSV file is read through to checksum it
+    private static final int CHECKSUM_BUFFER_SIZE = 1 << 16;
+
+    // Magic number and format version in the header page of a snapshot
+    private static final int SNAPSHOT_MAGIC = 0x46515353;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    // Most food item references the filter cache keeps, counting one
+    // more for every cached result
+    private static final long FILTER_CACHE_WEIGHT = 1 << 20;
+
+    // Size of the buffer a snapshot is written through
+    private static final int SNAPSHOT_BUFFER_SIZE = 1 << 16;
+
+    // Cost of a food item reached through an index, counted in column
+    // values scanned, when it is the only rule and when other rules are
+    // checked on it; measured on a 300k-item catalog
+    private static final int INDEX_ENTRY_COST = 4;
+    private static final int CHECKED_INDEX_ENTRY_COST = 24;
+
+    // System property turning on parallel loading, e.g. foodquery.parallelLoad=true
+    public static final String PARALLEL_LOAD_PROPERTY = "foodquery.parallelLoad";
+
+    // System property turning on memory-mapped loading, e.g. foodquery.mappedLoad=true
+    public static final String MAPPED_LOAD_PROPERTY = "foodquery.mappedLoad";
+
+    // Food items by row id, null for a removed food item; row ids are
+    // handed out in load order and never reused until the next load
+    private ArrayList<FoodItem> rows;
+
+    // Nutrient values by nutrient, in the order of NUTRIENTS, and row id;
+    // filters matching many food items scan these instead of an index
+    private double[][] columns;
+
+    // One bit per row id, set while the row's food item is loaded
+    private long[] liveRows;
+
+    // Number of loaded food items numbered by this FoodData; the others
+    // keep the row id another FoodData gave them and are not in the columns
+    private int ownedRows;
+
+    // Recent results of filterByName and filterByNutrients
+    private FilterCache filterCache;
+
+    // Totals of every nutrient over the loaded food items
+    private MealSummary summary;
+
+    // Trigram index over the names of the loaded food items
+    private NameIndex nameIndex;
+
+    // Suffix array over the names, built on first use and dropped
+    // whenever the food items change
+    private NameSuffixArray nameSuffixArray;
+
     // Map of nutrients and their corresponding index
-    private HashMap<String, BPTree<Double, FoodItem>> indexes;
+    private HashMap<String, BPTreeADT<Double, FoodItem>> indexes;
+
+    // Map of nutrients and the branching factor configured for their index
+    private HashMap<String, Integer> branchingFactors;
+
+    // Map of nutrients and the branching factor their index was built with
+    private HashMap<String, Integer> builtBranchingFactors;
+
+    // Whether files are parsed in chunks and indexes built on the common
+    // ForkJoinPool instead of on the calling thread
+    private boolean parallelLoad;
+
+    // Whether files are memory-mapped and parsed in place instead of
+    // being read through a stream
+    private boolean mappedLoad;
     
     
     /**
      * Public constructor
      *
      * Create a list to store all the FoodItems and a HashMap to store all the
-     * nutrient information
+     * nutrient information. Branching factors are read from the system
+     * properties, falling back to DEFAULT_BRANCHING_FACTOR.
+     *
+     * @throws IllegalArgumentException if a branching factor property
+     *         holds an illegal value
      */
     public FoodData() {
+        this(new HashMap<String, Integer>());
+    }
+
+
+    /**
+     * Constructor using the same branching factor for every index
+     *
+     * @param branchingFactor branching factor of every index, or
+     *        AUTO_BRANCHING_FACTOR to tune it when items are loaded
+     */
+    public FoodData(int branchingFactor) {
+        this(sameForEveryNutrient(branchingFactor));
+    }
+
+
+    /**
+     * Constructor with a branching factor per index
+     *
+     * @param branchingFactors map of nutrient names to the branching factor
+     *        of their index, or AUTO_BRANCHING_FACTOR to tune it when items
+     *        are loaded; nutrients left out use the system properties or
+     *        DEFAULT_BRANCHING_FACTOR
+     */
+    public FoodData(Map<String, Integer> branchingFactors) {
         foodItemList = new ArrayList<>(); //Store FoodItems
+        positions = new IdentityHashMap<>();
         indexes = new HashMap<>(); // Store Nutrient info
-        indexes.put("calories", new BPTree<Double, FoodItem>(3));
-        indexes.put("fat", new BPTree<Double, FoodItem>(3));
-        indexes.put("carbohydrate", new BPTree<Double, FoodItem>(3));
-        indexes.put("fiber", new BPTree<Double, FoodItem>(3));
-        indexes.put("protein", new BPTree<Double, FoodItem>(3));
+        rows = new ArrayList<>();
+        filterCache = new FilterCache(FILTER_CACHE_WEIGHT);
+        summary = new MealSummary();
+        columns = new double[NUTRIENTS.length][0];
+        liveRows = new long[0];
+        nameIndex = new NameIndex(foodItemList);
+        this.branchingFactors = new HashMap<>();
+        builtBranchingFactors = new HashMap<>();
+        parallelLoad = Boolean.getBoolean(PARALLEL_LOAD_PROPERTY);
+        mappedLoad = Boolean.getBoolean(MAPPED_LOAD_PROPERTY);
+        for (String nutrient : NUTRIENTS) {
+            Integer branchingFactor = branchingFactors.get(nutrient);
+            if (branchingFactor == null) {
+                branchingFactor = configuredBranchingFactor(nutrient);
+            }
+            if (branchingFactor != AUTO_BRANCHING_FACTOR && branchingFactor <= 2) {
+                throw new IllegalArgumentException(
+                    "Illegal branching factor for " + nutrient + ": " + branchingFactor);
+            }
+            this.branchingFactors.put(nutrient, branchingFactor);
+            // until there is data to tune with, auto indexes use the default
+            int initial = branchingFactor == AUTO_BRANCHING_FACTOR
+                ? DEFAULT_BRANCHING_FACTOR : branchingFactor;
+            indexes.put(nutrient, new DoubleBPTree<FoodItem>(initial));
+            builtBranchingFactors.put(nutrient, initial);
+        }
+    }
+
+
+    /**
+     * Creates a map giving every nutrient the same branching factor
+     *
+     * @param branchingFactor the branching factor
+     * @return map of nutrient names to the branching factor
+     */
+    private static Map<String, Integer> sameForEveryNutrient(int branchingFactor) {
+        Map<String, Integer> branchingFactors = new HashMap<>();
+        for (String nutrient : NUTRIENTS) {
+            branchingFactors.put(nutrient, branchingFactor);
+        }
+        return branchingFactors;
+    }
+
+
+    /**
+     * Reads the branching factor of a nutrient index from the system
+     * properties, preferring the per-index property over the global one
+     *
+     * @param nutrient name of the nutrient
+     * @return the configured branching factor, or DEFAULT_BRANCHING_FACTOR
+     *         if none is set
+     * @throws IllegalArgumentException if the property is neither "auto"
+     *         nor an integer greater than 2
+     */
+    private static int configuredBranchingFactor(String nutrient) {
+        String value = System.getProperty(BRANCHING_FACTOR_PROPERTY + "." + nutrient);
+        if (value == null) value = System.getProperty(BRANCHING_FACTOR_PROPERTY);
+        if (value == null) return DEFAULT_BRANCHING_FACTOR;
+        if (value.trim().equalsIgnoreCase("auto")) return AUTO_BRANCHING_FACTOR;
+        try {
+            int branchingFactor = Integer.parseInt(value.trim());
+            if (branchingFactor > 2) return branchingFactor;
+        } catch (NumberFormatException e) {
+            // reported below like any other illegal value
+        }
+        throw new IllegalArgumentException(
+            "Illegal branching factor for " + nutrient + ": " + value);
+    }
+
+
+    /**
+     * Gets the branching factor the index of a nutrient was built with
+     *
+     * @param nutrient name of the nutrient
+     * @return the branching factor, or 0 if there is no such index
+     */
+    public int getBranchingFactor(String nutrient) {
+        Integer branchingFactor = builtBranchingFactors.get(nutrient.toLowerCase());
+        return branchingFactor == null ? 0 : branchingFactor;
+    }
+
+
+    /**
+     * Turns parallel loading on or off. In parallel, loadFoodItems splits
+     * the file at line breaks into chunks parsed on the common
+     * ForkJoinPool, then builds the nutrient indexes concurrently, one
+     * task per index. The loaded data is the same either way.
+     *
+     * Parallel loading is off unless the PARALLEL_LOAD_PROPERTY system
+     * property is true.
+     *
+     * @param parallelLoad true to load in parallel
+     */
+    public void setParallelLoad(boolean parallelLoad) {
+        this.parallelLoad = parallelLoad;
+    }
+
+
+    /**
+     * Turns memory-mapped loading on or off. When on, loadFoodItems maps
+     * the file and parses its bytes in place instead of copying them
+     * through a stream buffer, which saves a copy of large files. Parallel
+     * loading always maps the file.
+     *
+     * Mapped loading is off unless the MAPPED_LOAD_PROPERTY system
+     * property is true.
+     *
+     * @param mappedLoad true to map files when loading
+     */
+    public void setMappedLoad(boolean mappedLoad) {
+        this.mappedLoad = mappedLoad;
     }
 
 
@@ -61,71 +315,358 @@ public class FoodData implements FoodDataADT<FoodItem> {
      */
     @Override
     public void loadFoodItems(String filePath) {
-        List<FoodItem> newList = new ArrayList<FoodItem>(); // new list store newly loaded data
-        try{
-            BufferedReader reader = new BufferedReader(new FileReader(filePath));
+        loadFoodItems(filePath, bytes -> { });
+    }
+
+    /**
+     * Loads the data in the .csv file as loadFoodItems(String) does,
+     * reporting the number of bytes parsed as the file is read. Meant
+     * for loading on a background thread: interrupting the thread stops
+     * the load and keeps the data loaded before.
+     *
+     * @param filePath path of the food item data file
+     * @param progress told the number of bytes parsed so far, possibly
+     *        from other threads when loading in parallel
+     * @return true if the file was loaded, false if it could not be read
+     *         or the load was interrupted
+     */
+    public boolean loadFoodItems(String filePath, LongConsumer progress) {
+        // the file is parsed from large chunks of bytes, see FoodCsvParser
+        try {
+            List<FoodItem> newList;
+            if (parallelLoad) {
+                newList = FoodCsvParser.parse(Paths.get(filePath), ForkJoinPool.commonPool(), progress);
+            } else if (mappedLoad) {
+                newList = FoodCsvParser.parse(Paths.get(filePath), progress);
+            } else {
+                try (InputStream in = new FileInputStream(filePath)) {
+                    newList = FoodCsvParser.parse(in, progress);
+                }
+            }
+            // a load cancelled while parsing does not go on to build indexes
+            if (Thread.currentThread().isInterrupted()) return false;
+            // indexes saved with this CSV are mapped instead of rebuilt
+            useItems(newList, () -> openIndexes(filePath, newList));
+            return true;
+        } catch (InterruptedIOException e) {
+            // a cancelled load, the thread stays interrupted
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
 
-            String line; // each line BufferedReader reads
-            Scanner scanner; // scan elements in each line
-            int index = 0; // keep track which column is in scanner right now
-            String id;
-            String name = "";
+    /**
+     * Replaces the loaded data with the given food items: numbers them
+     * by position, stores them in the columns and indexes their names
+     * and nutrients
+     *
+     * @param newList the food items
+     * @param openIndexes maps saved nutrient indexes, returning false if
+     *        there are none and the indexes have to be built
+     */
+    private void useItems(List<FoodItem> newList, BooleanSupplier openIndexes) {
+        foodItemList = newList; // replace the origin list with newly loaded data
+        positions = new IdentityHashMap<>(newList.size());
+        nameSuffixArray = null;
+        // every food item is new, so no cached result holds
+        filterCache.clear();
+        rows = new ArrayList<>(newList);
+        ownedRows = newList.size();
+        columns = new double[NUTRIENTS.length][newList.size()];
+        liveRows = new long[(newList.size() + 63) >>> 6];
+        summary.clear();
+        for (int i = 0; i < newList.size(); i++) {
+            newList.get(i).setRowId(i);
+            positions.put(newList.get(i), i);
+            storeRow(newList.get(i));
+            summary.add(newList.get(i));
+        }
+        ForkJoinTask<NameIndex> names = ForkJoinTask.adapt(() -> new NameIndex(newList));
+        if (parallelLoad) names.fork();
+        if (!openIndexes.getAsBoolean()) buildIndexes(newList);
+        nameIndex = parallelLoad ? names.join() : names.invoke();
+    }
 
-            while ((line = reader.readLine()) != null) {
-                scanner = new Scanner(line);
-                scanner.useDelimiter(",");
-                id = scanner.next();
+    /**
+     * Replaces every nutrient index with one bulk loaded from the given
+     * food items, sorting each nutrient once instead of inserting the
+     * items one at a time
+     *
+     * @param items the food items to be indexed
+     */
+    private void buildIndexes(List<FoodItem> items) {
+        int tuned = 0; // tuned once per load and shared by all auto indexes
+        List<ForkJoinTask<DoubleBPTree<FoodItem>>> builds = new ArrayList<>();
+        for (String nutrient : NUTRIENTS) {
+            int branchingFactor = branchingFactors.get(nutrient);
+            if (branchingFactor == AUTO_BRANCHING_FACTOR) {
+                if (tuned == 0) tuned = tuneBranchingFactor(nutrientKeys(items, nutrient), items);
+                branchingFactor = tuned;
+            }
+            builtBranchingFactors.put(nutrient, branchingFactor);
+            int finalBranchingFactor = branchingFactor;
+            ForkJoinTask<DoubleBPTree<FoodItem>> build = ForkJoinTask.adapt(() ->
+                new DoubleBPTree<FoodItem>(finalBranchingFactor, nutrientKeys(items, nutrient),
+                    items, INDEX_FILL_FACTOR));
+            // in parallel every index is built by its own task
+            builds.add(parallelLoad ? build.fork() : build);
+        }
+        for (int i = 0; i < NUTRIENTS.length; i++) {
+            ForkJoinTask<DoubleBPTree<FoodItem>> build = builds.get(i);
+            indexes.put(NUTRIENTS[i], parallelLoad ? build.join() : build.invoke());
+        }
+    }
+
+    /**
+     * Gets the value of a nutrient for every food item
+     *
+     * @param items the food items
+     * @param nutrient name of the nutrient
+     * @return the values, in the order of the food items
+     */
+    private static double[] nutrientKeys(List<FoodItem> items, String nutrient) {
+        double[] keys = new double[items.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = items.get(i).getNutrientValue(nutrient);
+        }
+        return keys;
+    }
 
-                if (scanner.hasNext()) name = scanner.next();
-                FoodItem food = new FoodItem(id, name);
+    /**
+     * Maps the indexes saved next to a CSV file by saveFoodItems. The
+     * index file is used only if it was written for the CSV file as it
+     * is now: same size, same modification time, same number of rows
+     * and same CRC32 of its bytes. The checksum catches an edit that
+     * keeps the size and lands within the file system's time resolution;
+     * it is only computed once everything else matches.
+     *
+     * @param filePath path of the CSV file the items were loaded from
+     * @param items the food items loaded from it, by row
+     * @return true if every index was mapped from the index file
+     */
+    private boolean openIndexes(String filePath, List<FoodItem> items) {
+        File csvFile = new File(filePath);
+        File indexFile = new File(filePath + INDEX_FILE_SUFFIX);
+        if (!indexFile.isFile()) return false;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            ByteBuffer pages = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int pageCount = pages.capacity() / MappedBPTree.PAGE_SIZE;
+            if (pageCount < 1
+                || pages.getInt(0) != INDEX_FILE_MAGIC
+                || pages.getInt(4) != INDEX_FILE_VERSION
+                || pages.getInt(8) != MappedBPTree.PAGE_SIZE
+                || pages.getInt(12) != items.size()
+                || pages.getLong(16) != csvFile.length()
+                || pages.getLong(24) != csvFile.lastModified()
+                || pages.getInt(32) != NUTRIENTS.length
+                || pages.getLong(36) != checksum(csvFile)) return false;
+            return mapIndexPages(pages, 44, items);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
 
-                if (id.equals("")) continue;
+    /**
+     * Writes every index to the index file next to a saved CSV file, with
+     * the row ids of the food items as they were written to the CSV. The
+     * file is written under a temporary name and moved into place, so a
+     * mapping of the previous file stays intact.
+     *
+     * @param filename name of the CSV file the food items were saved to
+     * @param rows the food items in the order they were saved
+     */
+    private void saveIndexes(String filename, List<FoodItem> rows) {
+        Path indexPath = Paths.get(filename + INDEX_FILE_SUFFIX);
+        Path tempPath = Paths.get(filename + INDEX_FILE_SUFFIX + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(MappedBPTree.PAGE_SIZE);
+                // page 0 is the header
+                writeIndexPages(channel, 1, rows, header, 44);
+                File csvFile = new File(filename);
+                header.putInt(0, INDEX_FILE_MAGIC);
+                header.putInt(4, INDEX_FILE_VERSION);
+                header.putInt(8, MappedBPTree.PAGE_SIZE);
+                header.putInt(12, rows.size());
+                header.putLong(16, csvFile.length());
+                header.putLong(24, csvFile.lastModified());
+                header.putInt(32, NUTRIENTS.length);
+                header.putLong(36, checksum(csvFile));
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+            }
+            Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+            try {
+                Files.deleteIfExists(tempPath);
+            } catch (IOException ignored) {
+                // nothing left to clean up
+            }
+        }
+    }
 
-                while (scanner.hasNext()) {
-                    String item = scanner.next();
-                    if (index == 1){
-                        Double data = Double.parseDouble(item);
-                        food.addNutrient("calories", data);
-                        indexes.get("calories").insert(data, food);
+    /**
+     * Computes the CRC32 of every byte of a file
+     *
+     * @param file the file
+     * @return the checksum
+     * @throws IOException if the file cannot be read
+     */
+    private static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[CHECKSUM_BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
 
-                    }
+    /**
+     * Writes every index as MappedBPTree pages, one tree after the other,
+     * with the positions of the food items in rows as row ids
+     *
+     * @param channel file the pages are written to
+     * @param firstPage page the first tree starts at
+     * @param rows the food items in the order they were saved
+     * @param header header page the root page of every index is put in
+     * @param rootsOffset offset of the root pages in the header
+     * @throws IOException if the pages cannot be written
+     */
+    private void writeIndexPages(FileChannel channel, int firstPage, List<FoodItem> rows,
+        ByteBuffer header, int rootsOffset) throws IOException {
+        IdentityHashMap<FoodItem, Integer> rowIds = new IdentityHashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            rowIds.put(rows.get(i), i);
+        }
+        int nextPage = firstPage;
+        for (int n = 0; n < NUTRIENTS.length; n++) {
+            // the index already holds the food items in key order
+            double[] keys = new double[rows.size()];
+            int[] ids = new int[rows.size()];
+            int size = 0;
+            Iterator<FoodItem> it = Spliterators.iterator(
+                indexes.get(NUTRIENTS[n]).rangeSpliterator(null, true, null, true));
+            while (it.hasNext()) {
+                FoodItem food = it.next();
+                Integer row = rowIds.get(food);
+                if (row == null) continue; // not saved
+                keys[size] = food.getNutrientValue(NUTRIENTS[n]);
+                ids[size++] = row;
+            }
+            int rootPage = MappedBPTree.writeTree(channel, nextPage,
+                Arrays.copyOf(keys, size), Arrays.copyOf(ids, size));
+            header.putInt(rootsOffset + 4 * n, rootPage);
+            nextPage = rootPage + 1;
+        }
+    }
 
-                    else if (index == 3){
-                        Double data = Double.parseDouble(item);
-                        food.addNutrient("fat", data);
-                        indexes.get("fat").insert(data, food);
-                    }
+    /**
+     * Maps the indexes written by writeIndexPages
+     *
+     * @param pages the mapped file
+     * @param rootsOffset offset of the root pages in the header
+     * @param items the food items, by row id
+     * @return true if every root page lies within the file and the
+     *         indexes were mapped
+     */
+    private boolean mapIndexPages(ByteBuffer pages, int rootsOffset, List<FoodItem> items) {
+        int pageCount = pages.capacity() / MappedBPTree.PAGE_SIZE;
+        HashMap<String, BPTreeADT<Double, FoodItem>> mapped = new HashMap<>();
+        for (int i = 0; i < NUTRIENTS.length; i++) {
+            int rootPage = pages.getInt(rootsOffset + 4 * i);
+            if (rootPage < 1 || rootPage >= pageCount) return false;
+            mapped.put(NUTRIENTS[i], new MappedBPTree<FoodItem>(pages, rootPage, items));
+        }
+        indexes.putAll(mapped);
+        // an index copied to the heap on its first change uses the
+        // configured branching factor, auto ones are not tuned
+        for (String nutrient : NUTRIENTS) {
+            int branchingFactor = branchingFactors.get(nutrient);
+            builtBranchingFactors.put(nutrient, branchingFactor == AUTO_BRANCHING_FACTOR
+                ? DEFAULT_BRANCHING_FACTOR : branchingFactor);
+        }
+        return true;
+    }
 
-                    else if (index == 5){
-                        Double data = Double.parseDouble(item);
-                        food.addNutrient("carbohydrate", data);
-                        indexes.get("carbohydrate").insert(data, food);
-                    }
+    /**
+     * Copies every index still mapped from an index file to the heap,
+     * since mapped indexes cannot be modified
+     */
+    @SuppressWarnings("unchecked")
+    private void materializeIndexes() {
+        for (String nutrient : NUTRIENTS) {
+            BPTreeADT<Double, FoodItem> index = indexes.get(nutrient);
+            if (index instanceof MappedBPTree) {
+                indexes.put(nutrient, ((MappedBPTree<FoodItem>) index).copyToHeap(
+                    builtBranchingFactors.get(nutrient), INDEX_FILL_FACTOR));
+            }
+        }
+    }
 
-                    else if (index == 7){
-                        Double data = Double.parseDouble(item);
-                        food.addNutrient("fiber", data);
-                        indexes.get("fiber").insert(data, food);
-                    }
+    /**
+     * Picks the branching factor for an index over the given keys.
+     *
+     * The dataset size rules out fanouts that would make the tree more
+     * than one level deeper than the shallowest candidate, since a
+     * smaller node searched faster can make up for one extra level but
+     * not for more; each remaining candidate is then
+     * bulk loaded over the keys and timed on lookups of keys just above
+     * existing ones, which measures the descent and in-node search
+     * without building result lists. The fastest candidate wins.
+     *
+     * @param keys the keys to be indexed
+     * @param items the food items matching the keys
+     * @return the chosen branching factor
+     */
+    private static int tuneBranchingFactor(double[] keys, List<FoodItem> items) {
+        if (keys.length == 0) return DEFAULT_BRANCHING_FACTOR;
+        // levels needed by each candidate when nodes are filled to the fill factor
+        int[] heights = new int[TUNING_CANDIDATES.length];
+        int minHeight = Integer.MAX_VALUE;
+        for (int i = 0; i < TUNING_CANDIDATES.length; i++) {
+            double fanout = Math.max(2, TUNING_CANDIDATES[i] * INDEX_FILL_FACTOR);
+            heights[i] = 1 + (int) Math.ceil(Math.log(Math.max(1, keys.length)) / Math.log(fanout));
+            minHeight = Math.min(minHeight, heights[i]);
+        }
 
-                    else if (index == 9){
-                        Double data = Double.parseDouble(item);
-                        food.addNutrient("protein", data);
-                        indexes.get("protein").insert(data, food);
-                    }
+        Random random = new Random(keys.length);
+        double[] probes = new double[TUNING_LOOKUPS];
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = Math.nextUp(keys[random.nextInt(keys.length)]);
+        }
 
-                    index++;
+        int best = DEFAULT_BRANCHING_FACTOR;
+        long bestTime = Long.MAX_VALUE;
+        for (int i = 0; i < TUNING_CANDIDATES.length; i++) {
+            if (heights[i] > minHeight + 1) continue;
+            DoubleBPTree<FoodItem> tree = new DoubleBPTree<FoodItem>(
+                TUNING_CANDIDATES[i], keys, items, INDEX_FILL_FACTOR);
+            // the first round only warms up the lookup code
+            long time = Long.MAX_VALUE;
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                for (double probe : probes) {
+                    tree.rangeSearch(probe, true, probe, true);
                 }
-                index = 0;
-                newList.add(food);
-
+                if (round > 0) time = Math.min(time, System.nanoTime() - start);
+            }
+            if (time < bestTime) {
+                bestTime = time;
+                best = TUNING_CANDIDATES[i];
             }
-            foodItemList = newList; // replace the origin list with newly loaded data
-            //close reader
-            reader.close();
-        } catch (IOException e) {
-            e.printStackTrace();
         }
+        return best;
     }
 
     /**
@@ -151,15 +692,104 @@ public class FoodData implements FoodDataADT<FoodItem> {
     public List<FoodItem> filterByName(String substring) {
         // If the filter condition is null, return an empty list;
         if(substring == null) return new ArrayList<FoodItem>();
-        List<FoodItem> res = new ArrayList<>(); // store filtered FoodItem
-        for (FoodItem i : foodItemList){
-            if(i.getName().toLowerCase().contains(substring)){
-                res.add(i);
-            }
+        String lowerSubstring = substring.toLowerCase();
+        String key = "name " + lowerSubstring;
+        List<FoodItem> res = filterCache.get(key);
+        if (res != null) return res;
+        // candidates come from the trigram index, see NameIndex
+        res = nameIndex.search(lowerSubstring);
+        filterCache.put(key, res, food -> food.getName().toLowerCase().contains(lowerSubstring));
+        return res;
+    }
+
+
+    /**
+     * Gets all the food items whose name contains the given substring,
+     * sorted by lowercased name. Matching is case-insensitive, as in
+     * filterByName.
+     *
+     * The search runs on a suffix array over the names, built on the
+     * first call after the food items change.
+     *
+     * @param substring substring to be searched
+     * @return list of filtered food items sorted by name; if no food item
+     *         matched, return empty list
+     */
+    public List<FoodItem> filterByNameSorted(String substring) {
+        if (substring == null) return new ArrayList<FoodItem>();
+        String lowerSubstring = substring.toLowerCase();
+        // kept apart from filterByName results, which are not sorted
+        String key = "sorted name " + lowerSubstring;
+        List<FoodItem> res = filterCache.get(key);
+        if (res != null) return res;
+        res = nameSuffixArray().search(lowerSubstring);
+        filterCache.put(key, res, food -> food.getName().toLowerCase().contains(lowerSubstring));
+        return res;
+    }
+
+
+    /**
+     * Gets the food items whose name contains the given substring, reusing
+     * the result for an earlier substring when the new one contains it.
+     * Every match of the new substring then matches the earlier one too,
+     * so only the earlier result is checked, in time proportional to its
+     * size instead of the number of food items. Otherwise the suffix
+     * array is searched as in filterByNameSorted.
+     *
+     * Meant for a name typed one character at a time; the earlier result
+     * must come from this method or filterByNameSorted, with no food item
+     * added, removed or renamed since.
+     *
+     * @param previous result for the earlier substring, or null if none
+     * @param previousSubstring the earlier substring, or null if none
+     * @param substring substring to be searched
+     * @return list of filtered food items sorted by name; if no food item
+     *         matched, return empty list
+     */
+    public List<FoodItem> refineByName(List<FoodItem> previous, String previousSubstring,
+        String substring) {
+        if (substring == null) return new ArrayList<FoodItem>();
+        String query = substring.toLowerCase();
+        if (previous == null || previousSubstring == null
+            || !query.contains(previousSubstring.toLowerCase())) {
+            return filterByNameSorted(substring);
+        }
+        // a subset of the earlier result, in the same order
+        List<FoodItem> res = new ArrayList<FoodItem>();
+        for (FoodItem foodItem : previous) {
+            if (foodItem.getName().toLowerCase().contains(query)) res.add(foodItem);
         }
         return res;
     }
 
+
+    /**
+     * Gets the first food items, sorted by lowercased name, whose name
+     * starts with the given prefix, ignoring case. Meant for completing
+     * a name as it is typed.
+     *
+     * @param prefix prefix to be searched
+     * @param limit most food items to return
+     * @return list of matching food items sorted by name; if no food item
+     *         matched, return empty list
+     */
+    public List<FoodItem> filterByNamePrefix(String prefix, int limit) {
+        if (prefix == null) return new ArrayList<FoodItem>();
+        return nameSuffixArray().startsWith(prefix, limit);
+    }
+
+
+    /**
+     * Gets the suffix array over the names, building it if the food
+     * items changed since it was last built
+     *
+     * @return the suffix array
+     */
+    private NameSuffixArray nameSuffixArray() {
+        if (nameSuffixArray == null) nameSuffixArray = new NameSuffixArray(foodItemList);
+        return nameSuffixArray;
+    }
+
     /**
      * Gets all the food items that fulfill ALL the provided rules
      *
@@ -183,39 +813,431 @@ public class FoodData implements FoodDataADT<FoodItem> {
      */
     @Override
     public List<FoodItem> filterByNutrients(List<String> rules) {
-        List<FoodItem> res = new ArrayList<>(); // store filtered FoodItem
-        String n[] = rules.get(0).split("\\s+");
-        String nutri = n[0]; // nutrient name
-        String compara = n[1]; // comparator
-        Double value = Double.parseDouble(n[2]); // filter value
-        if(indexes.containsKey(nutri)){
-            res = indexes.get(nutri).rangeSearch(value, compara);
+        LinkedHashMap<String, NutrientRange> ranges = parseRules(rules);
+        if (ranges == null) return new ArrayList<FoodItem>();
+        String key = rangesKey(ranges);
+        List<FoodItem> res = filterCache.get(key);
+        if (res != null) return res;
+        // not cached: collect the matches into a list that can be cached
+        res = streamByRanges(ranges).collect(Collectors.toCollection(ArrayList::new));
+        filterCache.put(key, res, food -> {
+            for (Map.Entry<String, NutrientRange> entry : ranges.entrySet()) {
+                if (!entry.getValue().contains(nutrientValue(food, column(entry.getKey()))))
+                    return false;
+            }
+            return true;
+        });
+        return res;
+    }
+
+    /**
+     * Writes merged rules in a canonical form, the same for every list
+     * of rules that selects the same food items by the same intervals
+     *
+     * @param ranges map of nutrients to their interval
+     * @return the canonical form, nutrients in NUTRIENTS order
+     */
+    private static String rangesKey(Map<String, NutrientRange> ranges) {
+        StringBuilder key = new StringBuilder("nutrients");
+        for (String nutrient : NUTRIENTS) {
+            NutrientRange range = ranges.get(nutrient);
+            if (range == null) continue;
+            key.append(' ').append(nutrient)
+                .append(range.lowInclusive ? '[' : '(')
+                .append(range.low == null ? "-inf" : range.low.toString()).append(',')
+                .append(range.high == null ? "inf" : range.high.toString())
+                .append(range.highInclusive ? ']' : ')');
         }
+        return key.toString();
+    }
 
-        // if the user enter more than one rule, iteratively go through every rules
-        for (String i : rules){
-            String s[] = i.split("\\s+");
-            String nutrient = s[0];
-            String comparator = s[1];
-            Double values = Double.parseDouble(s[2]);
-            if(indexes.containsKey(nutrient)){
-                List<FoodItem> filter = indexes.get(nutrient).rangeSearch(values, comparator);
-                // retain FoodItem satisfying every rules
-                res.retainAll(filter);
+    /**
+     * Gets one page of the food items that fulfill ALL the provided rules,
+     * in the same order as filterByNutrients. Only the items up to the
+     * end of the page are visited.
+     *
+     * @param rules list of rules
+     * @param offset number of matching food items to skip
+     * @param limit maximum number of food items to return
+     * @return list of filtered food items; if no food item matched, return empty list
+     */
+    public List<FoodItem> filterByNutrients(List<String> rules, int offset, int limit) {
+        return streamByNutrients(rules).skip(offset).limit(limit)
+            .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * Counts the food items that fulfill ALL the provided rules. When
+     * every rule is on the same nutrient the count is read from that
+     * nutrient's index in O(log N) without visiting the food items.
+     *
+     * @param rules list of rules
+     * @return number of food items filterByNutrients would return
+     */
+    public int countByNutrients(List<String> rules) {
+        LinkedHashMap<String, NutrientRange> ranges = parseRules(rules);
+        if (ranges == null) return 0;
+        if (ranges.size() > 1) return (int) streamByNutrients(rules).count();
+        Map.Entry<String, NutrientRange> only = ranges.entrySet().iterator().next();
+        NutrientRange range = only.getValue();
+        return indexes.get(only.getKey()).count(
+            range.low, range.lowInclusive, range.high, range.highInclusive);
+    }
+
+    /**
+     * Adds up one nutrient over the food items that fulfill ALL the
+     * provided rules, or over every food item when there are no rules.
+     * When the rules are only on the summed nutrient the sum is read
+     * from that nutrient's index in O(log N).
+     *
+     * @param nutrient name of the nutrient to add up [CASE-INSENSITIVE]
+     * @param rules list of rules, or null for every food item
+     * @return total of the nutrient, 0 if no food item matched
+     */
+    public double sumByNutrients(String nutrient, List<String> rules) {
+        if (nutrient == null) return 0;
+        String summed = nutrient.toLowerCase();
+        BPTreeADT<Double, FoodItem> index = indexes.get(summed);
+        if (index == null) return 0;
+        if (rules == null || rules.isEmpty()) return index.sum(null, true, null, true);
+        LinkedHashMap<String, NutrientRange> ranges = parseRules(rules);
+        if (ranges == null) return 0;
+        NutrientRange range = ranges.get(summed);
+        if (range != null && ranges.size() == 1)
+            return index.sum(range.low, range.lowInclusive, range.high, range.highInclusive);
+        return streamByNutrients(rules).mapToDouble(food -> food.getNutrientValue(summed)).sum();
+    }
+
+    /**
+     * Gets a lazy stream of the food items that fulfill ALL the provided
+     * rules. The index of the most selective nutrient is walked only as
+     * far as the stream is consumed, and the remaining nutrients are
+     * checked on each food item, so no intermediate list is built. When
+     * even the most selective nutrient matches many food items, the
+     * nutrient columns are scanned instead, in row id order.
+     *
+     * The data must not be modified while the stream is in use.
+     *
+     * @param rules list of rules
+     * @return stream of filtered food items
+     */
+    public Stream<FoodItem> streamByNutrients(List<String> rules) {
+        LinkedHashMap<String, NutrientRange> ranges = parseRules(rules);
+        if (ranges == null) return Stream.empty();
+        return streamByRanges(ranges);
+    }
+
+    /**
+     * Gets a lazy stream of the food items within every interval, as
+     * streamByNutrients does for the rules the intervals were merged from
+     *
+     * @param ranges map of nutrients to their interval, none of them empty
+     * @return stream of filtered food items
+     */
+    private Stream<FoodItem> streamByRanges(LinkedHashMap<String, NutrientRange> ranges) {
+        List<Map.Entry<String, NutrientRange>> plan = planRules(ranges);
+        Iterator<Map.Entry<String, NutrientRange>> it = plan.iterator();
+        Map.Entry<String, NutrientRange> first = it.next();
+        NutrientRange range = first.getValue();
+        if (range.matches == 0) return Stream.empty();
+        // walking an index pays off only while it skips most food items;
+        // the columns hold every food item only if this FoodData numbered them all
+        long indexCost = (long) range.matches
+            * (plan.size() == 1 ? INDEX_ENTRY_COST : CHECKED_INDEX_ENTRY_COST);
+        if (ownedRows == foodItemList.size() && indexCost > (long) rows.size() * plan.size()) {
+            long[] matches = scanColumns(plan);
+            List<FoodItem> scanned = new ArrayList<>();
+            for (int w = 0; w < matches.length; w++) {
+                for (long word = matches[w]; word != 0; word &= word - 1) {
+                    scanned.add(rows.get(w << 6 | Long.numberOfTrailingZeros(word)));
+                }
             }
+            return scanned.stream();
+        }
+        Stream<FoodItem> res = StreamSupport.stream(indexes.get(first.getKey()).rangeSpliterator(
+            range.low, range.lowInclusive, range.high, range.highInclusive), false);
+        // keep FoodItems satisfying the other nutrients as well
+        while (it.hasNext()) {
+            Map.Entry<String, NutrientRange> entry = it.next();
+            int column = column(entry.getKey());
+            NutrientRange other = entry.getValue();
+            res = res.filter(food -> other.contains(nutrientValue(food, column)));
         }
-
         return res;
     }
 
+    /**
+     * Finds the rows fulfilling every interval of a plan by scanning the
+     * nutrient columns, one interval at a time over the rows still left
+     *
+     * @param plan the nutrients and their intervals, most selective first
+     * @return one bit per row id, set for the rows that match
+     */
+    private long[] scanColumns(List<Map.Entry<String, NutrientRange>> plan) {
+        long[] matches = Arrays.copyOf(liveRows, liveRows.length);
+        for (Map.Entry<String, NutrientRange> entry : plan) {
+            NutrientRange range = entry.getValue();
+            // bounds as ordered keys, so exclusive bounds become inclusive
+            long low = range.low == null ? Long.MIN_VALUE : orderedKey(range.low);
+            long high = range.high == null ? Long.MAX_VALUE : orderedKey(range.high);
+            if (range.low != null && !range.lowInclusive) low++;
+            if (range.high != null && !range.highInclusive) high--;
+            scanColumn(columns[column(entry.getKey())], rows.size(), low, high, matches);
+        }
+        return matches;
+    }
+
+    /**
+     * Clears the bits of the rows whose value lies outside [low, high].
+     * The inner loop has no branches, comparing the ordered keys of 64
+     * values at a time into one word of bits.
+     *
+     * @param column nutrient values by row id
+     * @param rowCount number of row ids in use
+     * @param low smallest ordered key allowed
+     * @param high largest ordered key allowed
+     * @param matches one bit per row id, narrowed in place
+     */
+    private static void scanColumn(double[] column, int rowCount, long low, long high,
+        long[] matches) {
+        for (int w = 0; w < matches.length; w++) {
+            if (matches[w] == 0) continue;
+            int base = w << 6;
+            int end = Math.min(64, rowCount - base);
+            long word = 0;
+            for (int b = 0; b < end; b++) {
+                long key = orderedKey(column[base + b]);
+                word |= (key >= low & key <= high ? 1L : 0L) << b;
+            }
+            matches[w] &= word;
+        }
+    }
+
+    /**
+     * Maps a double to a long that sorts the way Double.compare does,
+     * -0.0 before 0.0 and NaN last, as the indexes order their keys
+     *
+     * @param value the value
+     * @return the ordered key
+     */
+    private static long orderedKey(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ (bits >> 63 & Long.MAX_VALUE);
+    }
+
+    /**
+     * Gets a nutrient value of a food item, from the columns if this
+     * FoodData numbered the food item
+     *
+     * @param foodItem the food item
+     * @param column position of the nutrient in NUTRIENTS
+     * @return the nutrient value
+     */
+    private double nutrientValue(FoodItem foodItem, int column) {
+        if (ownsRow(foodItem)) return columns[column][foodItem.getRowId()];
+        return foodItem.getNutrientValue(Nutrient.inSlot(column));
+    }
+
+    /**
+     * Finds the column of a nutrient
+     *
+     * @param nutrient lowercased name of the nutrient
+     * @return position of the nutrient in NUTRIENTS, -1 if unknown
+     */
+    private static int column(String nutrient) {
+        for (int i = 0; i < NUTRIENTS.length; i++) {
+            if (NUTRIENTS[i].equals(nutrient)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Stores the nutrient values of a food item in the columns under its
+     * row id, growing the columns as needed
+     *
+     * @param foodItem the food item, already given its row id
+     */
+    private void storeRow(FoodItem foodItem) {
+        int rowId = foodItem.getRowId();
+        if (rowId >= columns[0].length) {
+            int capacity = Math.max(rowId + 1, columns[0].length * 2);
+            for (int i = 0; i < NUTRIENTS.length; i++) {
+                columns[i] = Arrays.copyOf(columns[i], capacity);
+            }
+        }
+        if (rowId >>> 6 >= liveRows.length) {
+            liveRows = Arrays.copyOf(liveRows, Math.max((rowId >>> 6) + 1, liveRows.length * 2));
+        }
+        for (int i = 0; i < NUTRIENTS.length; i++) {
+            columns[i][rowId] = foodItem.getNutrientValue(Nutrient.inSlot(i));
+        }
+        liveRows[rowId >>> 6] |= 1L << rowId;
+    }
+
+    /**
+     * Orders the nutrients of the rules by the number of food items
+     * their interval matches, fewest first. The numbers are read from
+     * the indexes in O(log N) each. The first nutrient's index is then
+     * walked, visiting as few food items as possible, and the others
+     * are checked in order, rejecting most food items early.
+     *
+     * @param ranges map of nutrients to their interval
+     * @return the nutrients and their intervals in the order to run them
+     */
+    private List<Map.Entry<String, NutrientRange>> planRules(
+        LinkedHashMap<String, NutrientRange> ranges) {
+        List<Map.Entry<String, NutrientRange>> plan = new ArrayList<>(ranges.entrySet());
+        for (Map.Entry<String, NutrientRange> entry : plan) {
+            NutrientRange range = entry.getValue();
+            range.matches = indexes.get(entry.getKey()).count(
+                range.low, range.lowInclusive, range.high, range.highInclusive);
+        }
+        // a stable sort keeps rule order among equally selective nutrients
+        plan.sort(Comparator.comparingInt(entry -> entry.getValue().matches));
+        return plan;
+    }
+
+    /**
+     * Gets the row ids of the food items that fulfill ALL the provided
+     * rules, for combining with other filters as bitmaps
+     *
+     * @param rules list of rules
+     * @return bitmap of the row ids of the filtered food items
+     */
+    public RowBitmap rowsByNutrients(List<String> rules) {
+        // through filterByNutrients, so repeated filters come from the cache
+        return rowsOf(filterByNutrients(rules));
+    }
+
+    /**
+     * Gets the row ids of the food items whose lowercased name is one of
+     * the given names
+     *
+     * @param names names to be found [CASE-INSENSITIVE]
+     * @return bitmap of the row ids of the named food items
+     */
+    public RowBitmap rowsNamed(Collection<String> names) {
+        List<FoodItem> named = new ArrayList<>();
+        for (String name : names) {
+            String lowerName = name.toLowerCase();
+            // an exact name is the start of the names it prefixes
+            for (FoodItem food : filterByNamePrefix(lowerName, Integer.MAX_VALUE)) {
+                if (food.getName().toLowerCase().equals(lowerName)) named.add(food);
+            }
+        }
+        return rowsOf(named.iterator());
+    }
+
+    /**
+     * Gets the row ids of every food item in the loaded data
+     *
+     * @return bitmap of all the row ids
+     */
+    public RowBitmap allRows() {
+        return rowsOf(foodItemList.iterator());
+    }
+
+    /**
+     * Gets the row ids of the given food items
+     *
+     * @param foodItems the food items
+     * @return bitmap of their row ids
+     */
+    public RowBitmap rowsOf(List<FoodItem> foodItems) {
+        return rowsOf(foodItems.iterator());
+    }
+
+    /**
+     * Gets the food item with a row id
+     *
+     * @param rowId row id of the food item
+     * @return the food item, or null if the row id is not in use
+     */
+    public FoodItem getFoodItem(int rowId) {
+        if (rowId < 0 || rowId >= rows.size()) return null;
+        return rows.get(rowId);
+    }
+
+    /**
+     * Gets the row ids of the food items this FoodData numbered
+     *
+     * @param foodItems the food items
+     * @return bitmap of their row ids
+     */
+    private RowBitmap rowsOf(Iterator<FoodItem> foodItems) {
+        int[] rowIds = new int[16];
+        int count = 0;
+        while (foodItems.hasNext()) {
+            FoodItem food = foodItems.next();
+            if (!ownsRow(food)) continue;
+            if (count == rowIds.length) rowIds = Arrays.copyOf(rowIds, count * 2);
+            rowIds[count++] = food.getRowId();
+        }
+        return RowBitmap.of(rowIds, count);
+    }
+
+    /**
+     * Checks whether a food item's row id was given by this FoodData
+     *
+     * @param foodItem the food item
+     * @return true if the food item is the one stored under its row id
+     */
+    private boolean ownsRow(FoodItem foodItem) {
+        int rowId = foodItem.getRowId();
+        return rowId >= 0 && rowId < rows.size() && rows.get(rowId) == foodItem;
+    }
+
+    /**
+     * Parses the rules and merges every rule on the same nutrient into
+     * a single interval
+     *
+     * @param rules list of rules
+     * @return map of nutrients to their interval in rule order, or null
+     *         if no food item can fulfill the rules
+     */
+    private LinkedHashMap<String, NutrientRange> parseRules(List<String> rules) {
+        if (rules == null || rules.isEmpty()) return null;
+        LinkedHashMap<String, NutrientRange> ranges = new LinkedHashMap<>();
+        for (String i : rules){
+            String s[] = i.trim().split("\\s+");
+            String nutrient = s[0].toLowerCase();
+            if (!indexes.containsKey(nutrient)) continue;
+            NutrientRange range = ranges.get(nutrient);
+            if (range == null) {
+                range = new NutrientRange();
+                ranges.put(nutrient, range);
+            }
+            range.restrict(s[1], Double.parseDouble(s[2]));
+        }
+        if (ranges.isEmpty()) return null;
+        for (NutrientRange range : ranges.values()) {
+            if (range.isEmpty()) return null;
+        }
+        return ranges;
+    }
+
     /**
      * Adds a food item to the loaded data.
      * @param foodItem the food item instance to be added
      */
     @Override
     public void addFoodItem(FoodItem foodItem) {
+        materializeIndexes();
         // add a single foodItem into the list
+        positions.put(foodItem, foodItemList.size());
         foodItemList.add(foodItem);
+        nameIndex.add(foodItem);
+        nameSuffixArray = null;
+        // a food item already numbered by another FoodData keeps its row id
+        if (foodItem.getRowId() < 0) {
+            foodItem.setRowId(rows.size());
+            rows.add(foodItem);
+            storeRow(foodItem);
+            ownedRows++;
+        }
+        // only the results the food item belongs to change
+        filterCache.invalidate(foodItem);
+        summary.add(foodItem);
         // add every nutrient information into indexes HashMap
         indexes.get("calories").insert(foodItem.getNutrientValue("calories"), foodItem);
         indexes.get("fat").insert(foodItem.getNutrientValue("fat"), foodItem);
@@ -224,6 +1246,86 @@ public class FoodData implements FoodDataADT<FoodItem> {
         indexes.get("protein").insert(foodItem.getNutrientValue("protein"), foodItem);
     }
 
+    /**
+     * Removes a food item from the loaded data. Each index entry is
+     * removed in O(log N), without rebuilding the indexes. The last food
+     * item of the list takes the place of the removed one, so the list
+     * is not shifted.
+     *
+     * @param foodItem the food item instance to be removed
+     * @return true if the food item was part of the loaded data
+     */
+    public boolean removeFoodItem(FoodItem foodItem) {
+        if (foodItem == null || !positions.containsKey(foodItem)) return false;
+        materializeIndexes();
+        filterCache.invalidate(foodItem);
+        summary.remove(foodItem);
+        int position = positions.remove(foodItem);
+        FoodItem last = foodItemList.remove(foodItemList.size() - 1);
+        if (last != foodItem) {
+            foodItemList.set(position, last);
+            positions.put(last, position);
+        }
+        nameIndex.remove(foodItem);
+        nameSuffixArray = null;
+        if (ownsRow(foodItem)) {
+            int rowId = foodItem.getRowId();
+            rows.set(rowId, null);
+            liveRows[rowId >>> 6] &= ~(1L << rowId);
+            ownedRows--;
+        }
+        // remove the entry of every nutrient index
+        for (String nutrient : NUTRIENTS) {
+            indexes.get(nutrient).remove(foodItem.getNutrientValue(nutrient), foodItem);
+        }
+        return true;
+    }
+
+    /**
+     * Changes the value of one nutrient of a loaded food item and moves
+     * its entry in that nutrient's index in O(log N).
+     *
+     * @param foodItem the food item instance to be updated
+     * @param nutrient name of the nutrient [CASE-INSENSITIVE]
+     * @param value the new value of the nutrient
+     * @return true if the food item was found in the nutrient's index
+     */
+    public boolean updateFoodItem(FoodItem foodItem, String nutrient, double value) {
+        if (foodItem == null || nutrient == null) return false;
+        nutrient = nutrient.toLowerCase();
+        if (!indexes.containsKey(nutrient)) return false;
+        materializeIndexes();
+        BPTreeADT<Double, FoodItem> index = indexes.get(nutrient);
+        List<String> cachedBefore = filterCache.holding(foodItem);
+        double oldValue = foodItem.getNutrientValue(nutrient);
+        if (!index.update(oldValue, value, foodItem)) return false;
+        summary.update(Nutrient.fromKey(nutrient), oldValue, value);
+        foodItem.addNutrient(nutrient, value);
+        if (ownsRow(foodItem)) columns[column(nutrient)][foodItem.getRowId()] = value;
+        filterCache.invalidateChanged(foodItem, cachedBefore);
+        return true;
+    }
+
+    /**
+     * Gets the totals of every nutrient over the loaded food items, kept
+     * up to date as food items are added, removed and updated through
+     * this FoodData
+     *
+     * @return the running totals
+     */
+    public MealSummary getSummary() {
+        return summary;
+    }
+
+    /**
+     * Gets the cache of filter results, to read its hit and miss counts
+     *
+     * @return the filter cache
+     */
+    public FilterCache getFilterCache() {
+        return filterCache;
+    }
+
     /**
      * Gets the list of all food items.
      * @return list of application.FoodItem
@@ -243,28 +1345,18 @@ public class FoodData implements FoodDataADT<FoodItem> {
     @Override
     public void saveFoodItems(String filename){
 
-        // mapping food name to foodItem
-        HashMap<String, FoodItem> nameFood = new HashMap<>();
-        for (FoodItem i : foodItemList){
-            nameFood.put(i.getName(), i);
-        }
-        // Store food name to a list
-        List<String> nameList = new ArrayList<>();
-        nameList.addAll(nameFood.keySet());
-        // sorted the food name list
-        Collections.sort(nameList);
-        // put every sorted foodItem into a list
-        List<FoodItem> sortedFoodItem = new ArrayList<>();
-        for (String i : nameList){
-            sortedFoodItem.add(nameFood.get(i));
-        }
+        // sort the food items by name; the sort is stable, so food items
+        // sharing a name are all saved, in list order
+        List<FoodItem> sortedFoodItem = new ArrayList<>(foodItemList);
+        sortedFoodItem.sort(Comparator.comparing(FoodItem::getName));
         // Define Delimiter
         final String COMMA_DELIMITER = ",";
         final String NEW_LINE_SEPARATOR = "\n";
 
-        FileWriter fileWriter = null;
+        Writer fileWriter = null;
+        boolean saved = false;
         try {
-            fileWriter = new FileWriter(filename);
+            fileWriter = new BufferedWriter(new FileWriter(filename));
             for (FoodItem i : sortedFoodItem){
                 // Save id and name
                 fileWriter.append(String.valueOf(i.getID()));
@@ -293,6 +1385,7 @@ public class FoodData implements FoodDataADT<FoodItem> {
                 fileWriter.append(String.valueOf(i.getNutrientValue("protein")));
                 fileWriter.append(NEW_LINE_SEPARATOR);
             }
+            saved = true;
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
@@ -305,6 +1398,308 @@ public class FoodData implements FoodDataADT<FoodItem> {
                 e.printStackTrace();
             }
         }
+        // the indexes can be written once the CSV file is complete
+        if (saved) saveIndexes(filename, sortedFoodItem);
+    }
+
+    /**
+     * Saves the loaded data as a binary snapshot, which loadSnapshot
+     * reads back without parsing any text. The food items keep their
+     * order, and the nutrient indexes are saved as pages that
+     * loadSnapshot maps instead of rebuilding them.
+     *
+     * Layout, all numbers big-endian:
+     *   page 0:  magic, version, page size, number of food items, number
+     *            of nutrients, offset of the nutrient columns (long), end
+     *            of the columns (long), then the root page of every index
+     *   page 1:  for every food item, its id and its name as UTF-8, each
+     *            preceded by its length in bytes
+     *   columns: from an offset that is a multiple of 8, the values of
+     *            every nutrient, one column after the other in row order
+     *   indexes: from the first page after the columns, the MappedBPTree
+     *            pages of every index
+     *
+     * The file is written under a temporary name and moved into place.
+     *
+     * @param filename name of the snapshot file
+     */
+    public void saveSnapshot(String filename) {
+        Path snapshotPath = Paths.get(filename);
+        Path tempPath = Paths.get(filename + ".tmp");
+        List<FoodItem> items = new ArrayList<>(foodItemList);
+        try {
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                SnapshotWriter out = new SnapshotWriter(channel, MappedBPTree.PAGE_SIZE);
+                for (FoodItem food : items) {
+                    out.putString(food.getID());
+                    out.putString(food.getName());
+                }
+                out.alignTo(Double.BYTES);
+                long columnsOffset = out.position();
+                for (int n = 0; n < NUTRIENTS.length; n++) {
+                    Nutrient nutrient = Nutrient.inSlot(n);
+                    for (FoodItem food : items) {
+                        out.putDouble(food.getNutrientValue(nutrient));
+                    }
+                }
+                long columnsEnd = out.position();
+                out.alignTo(MappedBPTree.PAGE_SIZE);
+                out.flush();
+
+                ByteBuffer header = ByteBuffer.allocate(MappedBPTree.PAGE_SIZE);
+                writeIndexPages(channel, (int) (out.position() / MappedBPTree.PAGE_SIZE),
+                    items, header, 40);
+                header.putInt(0, SNAPSHOT_MAGIC);
+                header.putInt(4, SNAPSHOT_VERSION);
+                header.putInt(8, MappedBPTree.PAGE_SIZE);
+                header.putInt(12, items.size());
+                header.putInt(16, NUTRIENTS.length);
+                header.putLong(24, columnsOffset);
+                header.putLong(32, columnsEnd);
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+            }
+            Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+            try {
+                Files.deleteIfExists(tempPath);
+            } catch (IOException ignored) {
+                // nothing left to clean up
+            }
+        }
+    }
+
+    /**
+     * Loads the data saved by saveSnapshot. The file is mapped, the ids
+     * and names are decoded, the nutrient values are copied from their
+     * columns and the indexes are mapped from their pages. The loaded
+     * data is left as it was if the file is not a snapshot.
+     *
+     * @param filename name of the snapshot file
+     */
+    public void loadSnapshot(String filename) {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            ByteBuffer pages = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (pages.capacity() < MappedBPTree.PAGE_SIZE
+                || pages.getInt(0) != SNAPSHOT_MAGIC
+                || pages.getInt(4) != SNAPSHOT_VERSION
+                || pages.getInt(8) != MappedBPTree.PAGE_SIZE
+                || pages.getInt(16) != NUTRIENTS.length) {
+                throw new IOException(filename + " is not a food item snapshot");
+            }
+            int count = pages.getInt(12);
+            long columnsOffset = pages.getLong(24);
+            if (pages.getLong(32) != columnsOffset + (long) Double.BYTES * count * NUTRIENTS.length
+                || pages.getLong(32) > pages.capacity()) {
+                throw new IOException(filename + " is truncated");
+            }
+            ByteBuffer in = pages.duplicate();
+            in.position(MappedBPTree.PAGE_SIZE);
+            List<FoodItem> newList = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = getString(in);
+                newList.add(new FoodItem(id, getString(in)));
+            }
+            in.position((int) columnsOffset);
+            DoubleBuffer values = in.slice().asDoubleBuffer();
+            for (int n = 0; n < NUTRIENTS.length; n++) {
+                String nutrient = NUTRIENTS[n];
+                for (FoodItem food : newList) {
+                    food.addNutrient(nutrient, values.get());
+                }
+            }
+            useItems(newList, () -> mapIndexPages(pages, 40, newList));
+        } catch (IOException | RuntimeException e) {
+            // a damaged file can also fail while its contents are read
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads a string written by SnapshotWriter.putString
+     *
+     * @param in buffer positioned at the length of the string
+     * @return the string
+     */
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a snapshot through one buffer, so the channel sees a few
+     * large writes
+     */
+    private static class SnapshotWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(SNAPSHOT_BUFFER_SIZE);
+        // file offset of the start of the buffer
+        private long flushed;
+
+        /**
+         * Constructor
+         *
+         * @param channel the file
+         * @param position offset writing starts at
+         */
+        SnapshotWriter(FileChannel channel, long position) {
+            this.channel = channel;
+            this.flushed = position;
+        }
+
+        /**
+         * Gets the file offset the next value is written at
+         *
+         * @return the offset
+         */
+        long position() {
+            return flushed + buffer.position();
+        }
+
+        /**
+         * Writes a string as UTF-8, preceded by its length in bytes
+         *
+         * @param value the string
+         * @throws IOException if the file cannot be written
+         */
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensure(Integer.BYTES);
+            buffer.putInt(bytes.length);
+            int written = 0;
+            while (written < bytes.length) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), bytes.length - written);
+                buffer.put(bytes, written, length);
+                written += length;
+            }
+        }
+
+        /**
+         * Writes a double
+         *
+         * @param value the double
+         * @throws IOException if the file cannot be written
+         */
+        void putDouble(double value) throws IOException {
+            ensure(Double.BYTES);
+            buffer.putDouble(value);
+        }
+
+        /**
+         * Writes zeros up to the next multiple of alignment
+         *
+         * @param alignment the alignment in bytes
+         * @throws IOException if the file cannot be written
+         */
+        void alignTo(int alignment) throws IOException {
+            while (position() % alignment != 0) {
+                ensure(1);
+                buffer.put((byte) 0);
+            }
+        }
+
+        /**
+         * Writes out the buffer
+         *
+         * @throws IOException if the file cannot be written
+         */
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                flushed += channel.write(buffer, flushed);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Makes room for some bytes in the buffer
+         *
+         * @param bytes number of bytes needed
+         * @throws IOException if the file cannot be written
+         */
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) flush();
+        }
+    }
+
+    /**
+     * The interval of values allowed for one nutrient after merging
+     * every rule that names it. A null bound means that side is open.
+     */
+    private static class NutrientRange {
+        Double low;
+        boolean lowInclusive;
+        Double high;
+        boolean highInclusive;
+        boolean invalid;
+        // number of food items in the interval, set when rules are planned
+        int matches;
+
+        /**
+         * Narrows the interval with the rule "<comparator> <value>"
+         *
+         * @param comparator one of "<=", ">=", "=="
+         * @param value the value to compare with
+         */
+        void restrict(String comparator, double value) {
+            if (!comparator.equals(">=") && !comparator.equals("<=") 
+                && !comparator.equals("==")) {
+                // an unknown comparator matches nothing
+                invalid = true;
+                return;
+            }
+            // the tighter bound wins in the total order the indexes use, so
+            // NaN and -0.0 bounds do not depend on the order of the rules
+            if (comparator.equals(">=") || comparator.equals("==")) {
+                if (low == null || Double.compare(value, low) > 0) {
+                    low = value;
+                    lowInclusive = true;
+                }
+            }
+            if (comparator.equals("<=") || comparator.equals("==")) {
+                if (high == null || Double.compare(value, high) < 0) {
+                    high = value;
+                    highInclusive = true;
+                }
+            }
+        }
+
+        /**
+         * Checks whether a value lies within the interval
+         *
+         * @param value the value to be checked
+         * @return true if the value satisfies every merged rule
+         */
+        boolean contains(double value) {
+            if (invalid) return false;
+            if (low != null) {
+                int compareValue = Double.compare(value, low);
+                if (compareValue < 0 || (compareValue == 0 && !lowInclusive)) return false;
+            }
+            if (high != null) {
+                int compareValue = Double.compare(value, high);
+                if (compareValue > 0 || (compareValue == 0 && !highInclusive)) return false;
+            }
+            return true;
+        }
+
+        /**
+         * Checks whether no value can satisfy the interval
+         *
+         * @return true if the interval is empty
+         */
+        boolean isEmpty() {
+            if (invalid) return true;
+            if (low == null || high == null) return false;
+            int compareValue = low.compareTo(high);
+            return compareValue > 0 || (compareValue == 0 && !(lowInclusive && highInclusive));
+        }
     }
 
 }
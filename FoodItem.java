@@ -1,8 +1,14 @@
 package application;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * Filename:   application.FoodItem.java
@@ -10,6 +16,10 @@ import java.util.List;
  * Authors:    Amanda Sarsha, Tanner Bart, Xuefeng Xu, David Berman
  * 
  * This class builds a single food item 
+ *
+ * The nutrients of Nutrient are kept in a double[] with one slot each,
+ * and a bit per slot records whether the value was added. Any other
+ * nutrient name goes into a map created when the first one is added.
  */
 public class FoodItem {
     // The name of the food item.
@@ -18,8 +28,18 @@ public class FoodItem {
     // The id of the food item.
     private String id;
 
-    // Map of nutrients and value.
-    private HashMap<String, Double> nutrients;
+    // Values of the nutrients by slot, see Nutrient
+    private final double[] values;
+
+    // Bit per slot, set once the nutrient of the slot was added
+    private int present;
+
+    // Map of nutrients not in Nutrient and value, null until one is added
+    private HashMap<String, Double> otherNutrients;
+
+    // Dense number given by the FoodData that loaded or first added the
+    // food item, -1 until then
+    private int rowId = -1;
     
     /**
      * Constructor
@@ -29,8 +49,8 @@ public class FoodItem {
     public FoodItem(String id, String name) {
         this.id = id;
         this.name = name;
-        // map nutrient name to data
-        nutrients = new HashMap<>();
+        // one slot per known nutrient
+        values = new double[Nutrient.count()];
     }
     
     /**
@@ -48,14 +68,30 @@ public class FoodItem {
      * @return id of the food item
      */
     public String getID() { return id; }
+
+    /**
+     * Gets the row id of the food item, its number in the FoodData that
+     * loaded or first added it
+     *
+     * @return row id of the food item, -1 if it was never added
+     */
+    public int getRowId() { return rowId; }
+
+    /**
+     * Sets the row id of the food item
+     *
+     * @param rowId row id of the food item
+     */
+    void setRowId(int rowId) { this.rowId = rowId; }
     
     /**
-     * Gets the nutrients of the food item
+     * Gets the nutrients of the food item, as a view of the food item:
+     * adding to or removing from the map changes the food item.
      * 
      * @return nutrients of the food item
      */
-    public HashMap<String, Double> getNutrients() {
-        return nutrients;
+    public Map<String, Double> getNutrients() {
+        return new NutrientMap();
     }
 
     /**
@@ -65,11 +101,14 @@ public class FoodItem {
     public void addNutrient(String name, double value) {
         // check if nutrient name is empty
         if (name == null) return;
-        if (nutrients.containsKey(name)) {
-            nutrients.replace(name, value);
+        Nutrient nutrient = Nutrient.fromKey(name);
+        if (nutrient != null) {
+            values[nutrient.ordinal()] = value;
+            present |= 1 << nutrient.ordinal();
             return;
         }
-        nutrients.put(name, value);
+        if (otherNutrients == null) otherNutrients = new HashMap<>();
+        otherNutrients.put(name, value);
     }
 
     /**
@@ -79,11 +118,121 @@ public class FoodItem {
     public double getNutrientValue(String name) {
         // check if the search key is null
         if (name == null) return 0.0;
+        Nutrient nutrient = Nutrient.fromKey(name);
+        if (nutrient != null) return getNutrientValue(nutrient);
         // check if the key is in the map
-        if (!nutrients.containsKey(name)){
+        if (otherNutrients == null || !otherNutrients.containsKey(name)){
             return 0.0;
         }
-        return nutrients.get(name);
+        return otherNutrients.get(name);
+    }
+
+    /**
+     * Returns the value of the given nutrient for this food item,
+     * reading its slot directly. If not present, then returns 0.
+     *
+     * @param nutrient the nutrient
+     * @return value of the nutrient
+     */
+    public double getNutrientValue(Nutrient nutrient) {
+        return values[nutrient.ordinal()];
+    }
+
+    /**
+     * Map view of the nutrients: the slots that were added, in Nutrient
+     * order, then the other nutrients
+     */
+    private class NutrientMap extends AbstractMap<String, Double> {
+
+        @Override
+        public Double get(Object key) {
+            Nutrient nutrient = key instanceof String ? Nutrient.fromKey((String) key) : null;
+            if (nutrient != null) {
+                return (present & 1 << nutrient.ordinal()) != 0 ? values[nutrient.ordinal()] : null;
+            }
+            return otherNutrients == null ? null : otherNutrients.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Double put(String key, Double value) {
+            Double old = get(key);
+            addNutrient(key, value);
+            return old;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Double>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Double>>() {
+                @Override
+                public Iterator<Map.Entry<String, Double>> iterator() {
+                    return new NutrientIterator();
+                }
+
+                @Override
+                public int size() {
+                    return Integer.bitCount(present)
+                        + (otherNutrients == null ? 0 : otherNutrients.size());
+                }
+            };
+        }
+    }
+
+    /**
+     * Iterator over the entries of the map view, able to remove them
+     */
+    private class NutrientIterator implements Iterator<Map.Entry<String, Double>> {
+
+        // next slot to look at
+        private int slot;
+
+        // slot of the last entry returned, -1 if none or not a slot
+        private int lastSlot = -1;
+
+        // iterator over the other nutrients once the slots are done
+        private Iterator<Map.Entry<String, Double>> others;
+
+        @Override
+        public boolean hasNext() {
+            while (slot < values.length && (present & 1 << slot) == 0)
+                slot++;
+            if (slot < values.length) return true;
+            if (others == null) {
+                others = otherNutrients == null
+                    ? new HashMap<String, Double>().entrySet().iterator()
+                    : otherNutrients.entrySet().iterator();
+            }
+            return others.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, Double> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            if (slot < values.length) {
+                lastSlot = slot++;
+                return new AbstractMap.SimpleImmutableEntry<>(
+                    Nutrient.inSlot(lastSlot).getKey(), values[lastSlot]);
+            }
+            lastSlot = -1;
+            return others.next();
+        }
+
+        @Override
+        public void remove() {
+            if (lastSlot >= 0) {
+                present &= ~(1 << lastSlot);
+                values[lastSlot] = 0;
+                lastSlot = -1;
+            } else if (others != null) {
+                others.remove();
+            } else {
+                throw new IllegalStateException();
+            }
+        }
     }
     
 }
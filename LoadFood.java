@@ -13,7 +13,8 @@ import javafx.geometry.*;
  * Project:    Food Query
  * Authors:    Amanda Sarsha, Tanner Bart, Xuefeng Xu, David Berman
  * 
- * Use this class for loading a given file to the program
+ * Use this class for choosing a file to load to the program; Main
+ * loads the chosen file in the background
  */
 public class LoadFood {
     static Stage window;
@@ -27,7 +28,8 @@ public class LoadFood {
         window.setMinWidth(300);
         
         window.initModality(Modality.APPLICATION_MODAL);
-
+        //no path is chosen until a readable file is submitted
+        Main.path = null;
 
         Label loadPath = new Label("Load Path:");
         TextField pathInput = new TextField();
@@ -41,11 +43,10 @@ public class LoadFood {
         Button btn = new Button("Submit");
         btn.setOnAction(event -> {
             String path = pathInput.getText();
-            Main.path = path;
             File tryOpen = new File(path);
             if (tryOpen.exists() && tryOpen.isFile() && tryOpen.canRead()) {
-                Main.foodData.loadFoodItems(pathInput.getText());
-                AlertBox.display("LoadFood", "The food list has been loaded successfully!");
+                //the window closes at once, Main loads the file off the FX thread
+                Main.path = path;
                 window.close();
             }
             else {
@@ -7,16 +7,23 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.SimpleIntegerProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.effect.DropShadow;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
@@ -44,6 +51,17 @@ public class Main extends Application {
     static ArrayList<String> mealArrayList;   //list to hold the meal food names
     static String   path;   //used to see if a new path was entered
     static HashSet<String> filteredItems;   //hashset to store the current filtered items
+    //threads running loads and filters so the window stays responsive
+    static ExecutorService background = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "Food Query background");
+        thread.setDaemon(true);
+        return thread;
+    });
+    Task<FoodData> loadTask;    //newest load, cancelled when another one starts
+    Task<FilterResult> filterTask; //newest filter, cancelled when another one starts
+    ProgressBar progressBar;    //progress of the newest load, or of the filters
+    //background tasks whose work has not returned yet, cancelled ones included
+    IntegerProperty tasksInFlight = new SimpleIntegerProperty();
     /**
      * Starts the program
      *
@@ -117,107 +135,60 @@ public class Main extends Application {
             //initialize the filterList to be used with filtering
             filterList = new ArrayList<String>();
 
+            //create a progress bar shown while loading or filtering
+            progressBar = new ProgressBar();
+            progressBar.visibleProperty().bind(tasksInFlight.greaterThan(0));
+
             //create new filter button and set the action
             filterBtn = new Button("Filter");
             filterBtn.setOnAction(event -> {
                 Filter.display();
                 if (!filterList.isEmpty()) {
                     String nameSearch = filterList.get(0).trim();
-                    filterList.remove(0);
-                    HashSet<String> nameFilterSet = new HashSet<String>();
-                    HashSet<String> nutrientFilterSet = new HashSet<String>();
-                    HashSet<String> foodFilterSet = new HashSet<String>(); 
-                    //change to not get from filteredList
-                    ArrayList<String> filteredFoodList = new ArrayList<String>();
-
-                    ArrayList<FoodItem> addList = (ArrayList<FoodItem>) foodData.getAllFoodItems();
-                    ArrayList<String> addNames = new ArrayList<String>();
-                    //get the names of the food items
-                    for (int i = 0; i < addList.size(); i++) {
-                        addNames.add(addList.get(i).getName().toLowerCase());
-                    }
-                    //add the names to the list to compare
-                    foodFilterSet.addAll(addNames);
-                    //get all of the meal items into a set
-                    HashSet<String> meal = new HashSet<String>();
-                    meal.addAll(mealArrayList);
-                    //remove the meal items from the foodFilterSet
-                    foodFilterSet.removeAll(meal);
-                    boolean filteredName = false;
-                    boolean filteredNutrient = false;
-                    if (!nameSearch.equals("")) {
-                        java.util.List<FoodItem> nameFilterFoodList = foodData.filterByName(nameSearch);
-                        for (int i = 0; i < nameFilterFoodList.size(); i ++) {
-                            nameFilterSet.add(nameFilterFoodList.get(i).getName().toLowerCase());
-                        }
-                        filteredName = true;
-                    }
-                    if (filterList.size() > 0) {
-                        java.util.List<FoodItem> nutrientFilterList = foodData.filterByNutrients(filterList);
-                        for (int i = 0; i < nutrientFilterList.size(); i++) {
-                            nutrientFilterSet.add(nutrientFilterList.get(i).getName().toLowerCase());
+                    //copy what the filter reads, the lists may change while it runs
+                    ArrayList<String> rules = new ArrayList<String>(filterList.subList(1, filterList.size()));
+                    FoodData data = foodData;
+                    Task<FilterResult> task = new Task<FilterResult>() {
+                        @Override
+                        protected FilterResult call() {
+                            //food items matching the name sorted by name, every food
+                            //item for an empty name
+                            java.util.List<FoodItem> sorted = data.filterByNameSorted(nameSearch);
+                            if (isCancelled()) return null;
+                            //rows of the matches, narrowed by each rule; the meal is
+                            //left out when the result is shown, as it may change meanwhile
+                            RowBitmap rows = data.rowsOf(sorted);
+                            if (rules.size() > 0) {
+                                if (isCancelled()) return null;
+                                rows = rows.and(data.rowsByNutrients(rules));
+                            }
+                            if (isCancelled()) return null;
+                            ArrayList<String> filteredFoodList = new ArrayList<String>();
+                            addInOrder(sorted, rows, filteredFoodList);
+                            return new FilterResult(sorted, rows, filteredFoodList);
                         }
-                        filteredNutrient = true;
-                    }
-                    if (filteredName && filteredNutrient) {
-                        //display list with filtered for both
-                        foodFilterSet.retainAll(nameFilterSet);
-                        foodFilterSet.retainAll(nutrientFilterSet);
-                        filteredFoodList.addAll(foodFilterSet);
-                        Collections.sort(filteredFoodList);
-                        filteredList.getItems().clear();
-                        for (int i = 0; i < filteredFoodList.size(); i++) {
-                            filteredList.getItems().add(filteredFoodList.get(i));
+                    };
+                    //only a filter that was not cancelled shows its results, all at once
+                    task.setOnSucceeded(done -> {
+                        FilterResult result = task.getValue();
+                        //leave out the rows named in the meal as it is now, not as it
+                        //was when the filter started
+                        RowBitmap shownRows = result.rows.andNot(data.rowsNamed(mealArrayList));
+                        ArrayList<String> shownNames = new ArrayList<String>();
+                        addInOrder(result.sorted, shownRows, shownNames);
+                        filteredList.getItems().setAll(shownNames);
+                        //an empty set means no filter is applied; names in the meal stay
+                        //in the set so they come back here when taken out of the meal
+                        if (nameSearch.equals("") && rules.isEmpty()) {
+                            filteredItems.clear();
                         }
-                        filteredItems = foodFilterSet;
-                        filteredCount.setText("Number of Food Items: " + filteredList.getItems().size());
-                    }
-                    else if (filteredName){
-                        //display list with only filtered name
-                        foodFilterSet.retainAll(nameFilterSet);
-                        filteredFoodList.addAll(foodFilterSet);
-                        Collections.sort(filteredFoodList);
-                        filteredList.getItems().clear();
-                        for (int i = 0; i < filteredFoodList.size(); i++) {
-                            filteredList.getItems().add(filteredFoodList.get(i));
+                        else {
+                            filteredItems = new HashSet<String>(result.names);
                         }
-                        filteredItems = foodFilterSet;
                         filteredCount.setText("Number of Food Items: " + filteredList.getItems().size());
-                    }
-                    else if (filteredNutrient) {
-                        //display list with only filtered nutrient
-                        foodFilterSet.retainAll(nutrientFilterSet);
-                        filteredFoodList.addAll(foodFilterSet);
-                        Collections.sort(filteredFoodList);
-                        filteredList.getItems().clear();
-                        for (int i = 0; i < filteredFoodList.size(); i++) {
-                            filteredList.getItems().add(filteredFoodList.get(i));
-                        }
-                        filteredItems = foodFilterSet;
-                        filteredCount.setText("Number of Food Items: " + filteredList.getItems().size());
-                    }
-                    else {
-                        filteredItems.clear();
-                        filteredList.getItems().clear();
-                        addNames = new ArrayList<>();
-                        //get the names of the food items
-                        for (int i = 0; i < addList.size(); i++) {
-                            addNames.add(addList.get(i).getName().toLowerCase());
-                        }
-                        //add the names to the list to compare
-                        foodFilterSet.addAll(addNames);
-                        //get all of the meal items into a set
-                        meal = new HashSet<String>();
-                        meal.addAll(mealArrayList);
-                        //remove the meal items from the foodFilterSet and display the set
-                        foodFilterSet.removeAll(meal);
-                        addNames.clear();
-                        addNames.addAll(foodFilterSet);
-                        Collections.sort(addNames);
-                        filteredList.getItems().clear();
-                        filteredList.getItems().addAll(addNames);
-                        filteredCount.setText("Number of Food Items: " + filteredList.getItems().size());
-                    }
+                    });
+                    filterTask = runInBackground(task, filterTask);
+                    showProgress();
                 }
             });
             
@@ -251,6 +222,9 @@ public class Main extends Application {
 
             //create new add food button and set the action
             addBtn = new Button("Add Food");
+            //food items cannot be added while a filter reads them, or while a
+            //load is about to replace the food data they would be added to
+            addBtn.disableProperty().bind(tasksInFlight.greaterThan(0));
             addBtn.setOnAction(event -> {
                 AddFood.display();
                 for (FoodItem i : foodData.getAllFoodItems()){
@@ -279,33 +253,54 @@ public class Main extends Application {
             loadBtn = new Button("Load Food");
             loadBtn.setOnAction(event -> {
                 LoadFood.display();
-                try {
-                    File tryOpen = new File(path);
-                    //see if the file actually could have been opened
-                    if (tryOpen.exists() && tryOpen.isFile() && tryOpen.canRead()) {
-                        nameToFood.clear();
-                        for (FoodItem i : foodData.getAllFoodItems()){
-                            nameToFood.put(i.getName().toLowerCase(), i);
+                //see if a readable file was chosen
+                if (path == null) {
+                    return;
+                }
+                String loadPath = path;
+                long fileSize = new File(loadPath).length();
+                Task<FoodData> task = new Task<FoodData>() {
+                    @Override
+                    protected FoodData call() {
+                        //the food data in use stays untouched until the new one is complete
+                        FoodData loaded = new FoodData();
+                        if (!loaded.loadFoodItems(loadPath, bytes -> updateProgress(bytes, fileSize))) {
+                            return null;
                         }
-                        ArrayList<String> addNames = new ArrayList<>();
-                        addNames.addAll(nameToFood.keySet());
-
-                        Collections.sort(addNames);
-                        ObservableList<String> items = FXCollections.observableArrayList (
-                            addNames);
-                        //clear the existing lists
-                        filteredList.getItems().clear();
-                        mealList.getItems().clear();
-                        mealArrayList.clear();
-                        filteredList.getItems().addAll(items);
-                        filteredCount.setText("Number of Food Items: " + filteredList.getItems().size());
-                        mealCount.setText("Number of Food Items: " + mealList.getItems().size());
+                        return loaded;
                     }
-                }
-                catch (Exception e) {
-
-                }
+                };
+                task.setOnSucceeded(done -> {
+                    if (task.getValue() == null) {
+                        AlertBox.display("Error", "\"" + loadPath + "\" could not be loaded");
+                        return;
+                    }
+                    //a filter still running reads the food data being replaced
+                    if (filterTask != null) {
+                        filterTask.cancel(true);
+                    }
+                    foodData = task.getValue();
+                    nameToFood.clear();
+                    for (FoodItem i : foodData.getAllFoodItems()){
+                        nameToFood.put(i.getName().toLowerCase(), i);
+                    }
+                    ArrayList<String> addNames = new ArrayList<>();
+                    addNames.addAll(nameToFood.keySet());
 
+                    Collections.sort(addNames);
+                    ObservableList<String> items = FXCollections.observableArrayList (
+                        addNames);
+                    //clear the existing lists
+                    filteredList.getItems().clear();
+                    mealList.getItems().clear();
+                    mealArrayList.clear();
+                    filteredList.getItems().addAll(items);
+                    filteredCount.setText("Number of Food Items: " + filteredList.getItems().size());
+                    mealCount.setText("Number of Food Items: " + mealList.getItems().size());
+                    AlertBox.display("LoadFood", "The food list has been loaded successfully!");
+                });
+                loadTask = runInBackground(task, loadTask);
+                showProgress();
             });
 
             // Save food list when usr click the btn
@@ -325,51 +320,13 @@ public class Main extends Application {
 
             filteredList.setOnMouseClicked(event -> {
                 if (filteredList.getSelectionModel().getSelectedIndex() >= 0) {
-                    newMeal.addFoodItem(nameToFood.get(filteredList.getSelectionModel().getSelectedItem().toLowerCase()));
-
-                    mealArrayList.add(filteredList.getSelectionModel().getSelectedItem());
-                    //hashset to use to compare meal items
-                    HashSet<String> meal = new HashSet<String>();
-                    meal.addAll(mealArrayList);
-                    //hashset to use to compare list items
-                    HashSet<String> list = new HashSet<String>();
-                    //hashset to use to compare filter items
-                    HashSet<String> filtered = new HashSet<String>();
-                    filtered = filteredItems;
-
-                    //clear items in lists to update displayed items
-                    filteredList.getItems().clear();
-                    mealList.getItems().clear();
-
-                    //get the food items in the list
-                    ArrayList<FoodItem> addList = (ArrayList<FoodItem>) foodData.getAllFoodItems();
-                    ArrayList<String> addNames = new ArrayList<String>();
-                    //get the names of the food items
-                    for (int i = 0; i < addList.size(); i++) {
-                        addNames.add(addList.get(i).getName().toLowerCase());
-                    }
-                    //add the names to the list to compare
-                    list.addAll(addNames);
-                    //get rid of the names in the meal
-                    list.removeAll(meal);
-                    //get rid of the non-filtered items
-                    if (!filtered.isEmpty()) {
-                        list.retainAll(filtered);
-                    }
-                    //add the compared list to the arraylist to be displayed
-                    addNames.clear();
-                    addNames.addAll(list);
-                    //sort the arrays in alphabetical order
-                    Collections.sort(addNames);
-                    Collections.sort(mealArrayList);
-                    //display the filtered list
-                    for (int i = 0; i < addNames.size(); i++) {
-                        filteredList.getItems().add(addNames.get(i).toLowerCase());
-                    }
-                    //display the meal list
-                    for (int i = 0; i < mealArrayList.size(); i++) {
-                        mealList.getItems().add(mealArrayList.get(i).toLowerCase());
-                    }
+                    String name = filteredList.getSelectionModel().getSelectedItem().toLowerCase();
+                    newMeal.addFoodItem(nameToFood.get(name));
+                    //both lists stay sorted, so only the clicked name moves between them
+                    filteredList.getSelectionModel().clearSelection();
+                    removeSorted(filteredList.getItems(), name);
+                    insertSorted(mealArrayList, name);
+                    insertSorted(mealList.getItems(), name);
                     //update the item counters for each list
                     mealCount.setText("Number of Food Items: " + mealList.getItems().size());
                     filteredCount.setText("Number of Food Items: " + filteredList.getItems().size());
@@ -379,55 +336,23 @@ public class Main extends Application {
             //click on food in meal list and remove it from the meal list, adds it to filtered list
             mealList.setOnMouseClicked(event -> {
                 if (mealList.getSelectionModel().getSelectedIndex() >= 0) {
-                    FoodData temp = newMeal;
-                    newMeal = new FoodData();
-                    for(FoodItem i : temp.getAllFoodItems()){
-                        if(!i.getName().toLowerCase().equals(mealList.getSelectionModel().getSelectedItem())){
-                            newMeal.addFoodItem(i);
+                    String name = mealList.getSelectionModel().getSelectedItem();
+                    //remove the meal's items with the selected name from its indexes
+                    ArrayList<FoodItem> removeList = new ArrayList<FoodItem>();
+                    for(FoodItem i : newMeal.getAllFoodItems()){
+                        if(i.getName().toLowerCase().equals(name)){
+                            removeList.add(i);
                         }
                     }
-                    //remove the item from the meal list
-                    mealArrayList.remove(mealList.getSelectionModel().getSelectedItem());
-                    //hashset to use to compare the meal list
-                    HashSet<String> meal = new HashSet<String>();
-                    meal.addAll(mealArrayList);
-                    //hashset to use to compare the food list
-                    HashSet<String> list = new HashSet<String>();
-                    //hashset used to compare the filtered items
-                    HashSet<String> filtered = new HashSet<String>();
-                    filtered = filteredItems;
-
-                    //clear lists to update the display
-                    filteredList.getItems().clear();
-                    mealList.getItems().clear();
-                    //get all the food items
-                    ArrayList<FoodItem> addList = (ArrayList<FoodItem>) foodData.getAllFoodItems();
-                    ArrayList<String> addNames = new ArrayList<String>();
-                    //get names of food items
-                    for (int i = 0; i < addList.size(); i++) {
-                        addNames.add(addList.get(i).getName().toLowerCase());
-                    }
-                    //add all names to set to be compared
-                    list.addAll(addNames);
-                    //remove the meal items from the set
-                    list.removeAll(meal);
-                    //get rid of the non-filtered items
-                    if (!filtered.isEmpty()) {
-                        list.retainAll(filtered);
-                    }
-                    //add all the compared to the list to be displayed
-                    addNames.clear();
-                    addNames.addAll(list);
-                    //sort in alphabetical order
-                    Collections.sort(addNames);
-                    Collections.sort(mealArrayList);
-                    //display the filtered list
-                    for (int i = 0; i < addNames.size(); i++) {
-                        filteredList.getItems().add(addNames.get(i).toLowerCase());
+                    for (FoodItem i : removeList) {
+                        newMeal.removeFoodItem(i);
                     }
-                    //display the meal list
-                    for (int i = 0; i < mealArrayList.size(); i++) {
-                        mealList.getItems().add(mealArrayList.get(i).toLowerCase());
+                    //move the name back, unless the current filter leaves it out
+                    mealList.getSelectionModel().clearSelection();
+                    removeSorted(mealList.getItems(), name);
+                    removeSorted(mealArrayList, name);
+                    if (nameToFood.containsKey(name) && (filteredItems.isEmpty() || filteredItems.contains(name))) {
+                        insertSorted(filteredList.getItems(), name);
                     }
                     //update the item counters
                     mealCount.setText("Number of Food Items: " + mealList.getItems().size());
@@ -442,6 +367,7 @@ public class Main extends Application {
             topGrid.add(loadBtn, 3,1);
             topGrid.add(saveFoodBtn,5,1);
             topGrid.add(saveMealBtn,6,1);
+            topGrid.add(progressBar,7,1);
 
             // Click btn to open a new window shows all nutrient info of the meal
             Button analyzeMealBTN = new Button("Analyze Meal");
@@ -473,6 +399,120 @@ public class Main extends Application {
             e.printStackTrace();
         }
     }
+    /**
+     * Runs a task on the background threads after cancelling the task it
+     * replaces. A cancelled task never reports success, so its results are
+     * dropped, but its work may go on until it next checks for the cancel;
+     * it counts as in flight until then.
+     *
+     * @param task the task to be run
+     * @param replaced the task it replaces, or null if none
+     * @return the task, to be replaced by the next one
+     */
+    private <T> Task<T> runInBackground(Task<T> task, Task<?> replaced) {
+        if (replaced != null) {
+            replaced.cancel(true);
+        }
+        task.setOnFailed(done -> task.getException().printStackTrace());
+        tasksInFlight.set(tasksInFlight.get() + 1);
+        background.execute(() -> {
+            try {
+                //returns once the work is done, or at once if cancelled before starting
+                task.run();
+            }
+            finally {
+                Platform.runLater(() -> {
+                    tasksInFlight.set(tasksInFlight.get() - 1);
+                    showProgress();
+                });
+            }
+        });
+        return task;
+    }
+    /**
+     * Shows the progress of the newest load while it runs, as a load
+     * reports how much of its file is read; filters alone show a bar
+     * without progress
+     */
+    private void showProgress() {
+        if (loadTask != null && !loadTask.isDone()) {
+            progressBar.progressProperty().bind(loadTask.progressProperty());
+        }
+        else {
+            progressBar.progressProperty().unbind();
+            progressBar.setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+        }
+    }
+    /**
+     * Adds a name to a sorted list of names at its sorted position, unless
+     * the list already holds it. An observable list sends one change for
+     * the name, so a ListView showing it updates one row.
+     *
+     * @param sortedNames names in ascending order
+     * @param name the name to be added
+     */
+    private static void insertSorted(java.util.List<String> sortedNames, String name) {
+        int index = Collections.binarySearch(sortedNames, name);
+        if (index < 0) {
+            sortedNames.add(-index - 1, name);
+        }
+    }
+    /**
+     * Removes a name from a sorted list of names, found by binary search
+     *
+     * @param sortedNames names in ascending order
+     * @param name the name to be removed
+     */
+    private static void removeSorted(java.util.List<String> sortedNames, String name) {
+        int index = Collections.binarySearch(sortedNames, name);
+        if (index >= 0) {
+            sortedNames.remove(index);
+        }
+    }
+    /**
+     * Adds the lowercased names of the food items whose row is in the
+     * bitmap to a list, keeping the order of the food items and skipping
+     * repeated names. The food items must be sorted by name, so the list
+     * comes out sorted without sorting it.
+     *
+     * @param foodItems food items sorted by name
+     * @param rows row ids of the food items to keep
+     * @param sortedNames list the names are added to
+     */
+    private static void addInOrder(java.util.List<FoodItem> foodItems, RowBitmap rows,
+        ArrayList<String> sortedNames) {
+        for (FoodItem foodItem : foodItems) {
+            String name = foodItem.getName().toLowerCase();
+            //equal names are next to each other in sorted food items
+            if (rows.contains(foodItem.getRowId()) && (sortedNames.isEmpty()
+                || !sortedNames.get(sortedNames.size() - 1).equals(name))) {
+                sortedNames.add(name);
+            }
+        }
+    }
+    /**
+     * This class holds what a filter found: the rows of the matching
+     * food items and their names, with the food items that give the
+     * names their order
+     */
+    private static class FilterResult {
+        final java.util.List<FoodItem> sorted; //food items sorted by name, a superset of the matches
+        final RowBitmap rows;                  //row ids of the matching food items
+        final ArrayList<String> names;         //lowercased names of the matches, sorted
+
+        /**
+         * Constructor
+         *
+         * @param sorted food items sorted by name
+         * @param rows row ids of the matching food items
+         * @param names lowercased names of the matches, sorted
+         */
+        FilterResult(java.util.List<FoodItem> sorted, RowBitmap rows, ArrayList<String> names) {
+            this.sorted = sorted;
+            this.rows = rows;
+            this.names = names;
+        }
+    }
     /**
      * Launch the program
      *
@@ -0,0 +1,579 @@
+package application;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Filename:   application.MappedBPTree.java
+ * Project:    Food Query
+ * Authors:    Amanda Sarsha, Tanner Bart, Xuefeng Xu, David Berman
+ *
+ * A read-only B+ tree over double keys stored in fixed-size pages of
+ * a file, read straight from a memory-mapped buffer. Opening a tree
+ * only records its root page; the pages are faulted in by the OS as
+ * searches touch them, so nothing is rebuilt on the heap.
+ *
+ * The values are not stored in the file. Each entry holds a row id,
+ * the position of its value in the row list given to the constructor.
+ *
+ * Page layout, all numbers big-endian:
+ *   leaf page:     type, count, next leaf page (-1 for the last leaf),
+ *                  then count keys and count row ids
+ *   internal page: type, count of separators, then the separators and,
+ *                  for every child, its page, its number of entries and
+ *                  the sum of its keys
+ * Internal pages keep entry counts and key sums per child, so count
+ * and sum work in O(log N) as in DoubleBPTree.
+ *
+ * @param <V> value - expect a user-defined type that stores all data for a food item
+ */
+public class MappedBPTree<V> implements BPTreeADT<Double, V> {
+
+    // Size of every page in bytes
+    public static final int PAGE_SIZE = 4096;
+
+    // Page types
+    private static final int LEAF = 0;
+    private static final int INTERNAL = 1;
+
+    // Bytes before the keys of a page
+    private static final int HEADER_SIZE = 16;
+
+    // Entries per leaf page: a key and a row id each
+    private static final int LEAF_CAPACITY = (PAGE_SIZE - HEADER_SIZE) / 12;
+
+    // Separators per internal page: a separator plus a child page, count
+    // and sum each, and one more child than separators
+    private static final int INTERNAL_CAPACITY = (PAGE_SIZE - HEADER_SIZE - 16) / 24;
+
+    // Offsets of the arrays of a page
+    private static final int LEAF_ROWS = HEADER_SIZE + 8 * LEAF_CAPACITY;
+    private static final int CHILD_PAGES = HEADER_SIZE + 8 * INTERNAL_CAPACITY;
+    private static final int CHILD_COUNTS = CHILD_PAGES + 4 * (INTERNAL_CAPACITY + 1);
+    private static final int CHILD_SUMS = CHILD_COUNTS + 4 * (INTERNAL_CAPACITY + 1);
+
+    // The mapped file, only read with absolute gets so it can be shared
+    private final ByteBuffer pages;
+
+    // Page holding the root of the tree
+    private final int rootPage;
+
+    // Values by row id
+    private final Object[] rows;
+
+
+    /**
+     * Public constructor, opens a tree written by writeTree
+     *
+     * @param pages buffer holding the whole file, page 0 first
+     * @param rootPage root page returned by writeTree
+     * @param rows values by row id
+     */
+    public MappedBPTree(ByteBuffer pages, int rootPage, List<V> rows) {
+        this.pages = pages;
+        this.rootPage = rootPage;
+        this.rows = rows.toArray();
+    }
+
+
+    /**
+     * Writes a tree over the given entries to consecutive pages of a file.
+     *
+     * The leaves are filled completely, since the tree is never
+     * modified, and the internal levels are built bottom-up on top of
+     * them. The root is written last.
+     *
+     * @param channel file to write to
+     * @param firstPage first page to be written
+     * @param keys keys in ascending Double.compare order
+     * @param rowIds row id of every key
+     * @return the root page, the tree uses pages firstPage to root page
+     * @throws IOException if the file cannot be written
+     */
+    public static int writeTree(FileChannel channel, int firstPage, double[] keys,
+        int[] rowIds) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+        int size = keys.length;
+        int pageId = firstPage;
+
+        //first key, page, entry count and key sum of every node of a level
+        int leafCount = Math.max(1, (size + LEAF_CAPACITY - 1) / LEAF_CAPACITY);
+        double[] firstKeys = new double[leafCount];
+        int[] pageIds = new int[leafCount];
+        int[] counts = new int[leafCount];
+        double[] sums = new double[leafCount];
+
+        int position = 0;
+        for (int i = 0; i < leafCount; i++) {
+            int count = size / leafCount + (i < size % leafCount ? 1 : 0);
+            clear(page);
+            page.putInt(0, LEAF);
+            page.putInt(4, count);
+            page.putInt(8, i + 1 < leafCount ? pageId + 1 : -1);
+            double sum = 0;
+            for (int j = 0; j < count; j++, position++) {
+                page.putDouble(HEADER_SIZE + 8 * j, keys[position]);
+                page.putInt(LEAF_ROWS + 4 * j, rowIds[position]);
+                sum += keys[position];
+            }
+            firstKeys[i] = count > 0 ? keys[position - count] : 0;
+            pageIds[i] = pageId;
+            counts[i] = count;
+            sums[i] = sum;
+            writePage(channel, page, pageId++);
+        }
+
+        //build each internal level from the level below until one node is left
+        while (pageIds.length > 1) {
+            int levelSize = pageIds.length;
+            int parentCount = (levelSize + INTERNAL_CAPACITY) / (INTERNAL_CAPACITY + 1);
+            double[] parentFirstKeys = new double[parentCount];
+            int[] parentPageIds = new int[parentCount];
+            int[] parentCounts = new int[parentCount];
+            double[] parentSums = new double[parentCount];
+            position = 0;
+            for (int i = 0; i < parentCount; i++) {
+                int children = levelSize / parentCount + (i < levelSize % parentCount ? 1 : 0);
+                clear(page);
+                page.putInt(0, INTERNAL);
+                page.putInt(4, children - 1);
+                parentFirstKeys[i] = firstKeys[position];
+                for (int j = 0; j < children; j++, position++) {
+                    if (j > 0)
+                        page.putDouble(HEADER_SIZE + 8 * (j - 1), firstKeys[position]);
+                    page.putInt(CHILD_PAGES + 4 * j, pageIds[position]);
+                    page.putInt(CHILD_COUNTS + 4 * j, counts[position]);
+                    page.putDouble(CHILD_SUMS + 8 * j, sums[position]);
+                    parentCounts[i] += counts[position];
+                    parentSums[i] += sums[position];
+                }
+                parentPageIds[i] = pageId;
+                writePage(channel, page, pageId++);
+            }
+            firstKeys = parentFirstKeys;
+            pageIds = parentPageIds;
+            counts = parentCounts;
+            sums = parentSums;
+        }
+        return pageIds[0];
+    }
+
+
+    /**
+     * Zeroes a page buffer
+     *
+     * @param page buffer of one page
+     */
+    private static void clear(ByteBuffer page) {
+        for (int i = 0; i < PAGE_SIZE; i += 8) {
+            page.putLong(i, 0);
+        }
+    }
+
+
+    /**
+     * Writes a page buffer to its place in the file
+     *
+     * @param channel file to write to
+     * @param page buffer of one page
+     * @param pageId page to be written
+     * @throws IOException if the file cannot be written
+     */
+    private static void writePage(FileChannel channel, ByteBuffer page, int pageId)
+        throws IOException {
+        page.clear();
+        long offset = (long) pageId * PAGE_SIZE;
+        while (page.hasRemaining()) {
+            offset += channel.write(page, offset);
+        }
+    }
+
+
+    /**
+     * Not supported, the tree is read only
+     *
+     * @see BPTreeADT#insert(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public void insert(Double key, V value) {
+        throw new UnsupportedOperationException("MappedBPTree is read only");
+    }
+
+
+    /**
+     * Not supported, the tree is read only
+     *
+     * @see BPTreeADT#remove(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public boolean remove(Double key, V value) {
+        throw new UnsupportedOperationException("MappedBPTree is read only");
+    }
+
+
+    /**
+     * Not supported, the tree is read only
+     *
+     * @see BPTreeADT#update(java.lang.Object, java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public boolean update(Double oldKey, Double newKey, V value) {
+        throw new UnsupportedOperationException("MappedBPTree is read only");
+    }
+
+
+    /**
+     * Copies the tree into a DoubleBPTree that can be modified. The
+     * leaves are already sorted, so the copy is bulk loaded in O(N).
+     *
+     * @param branchingFactor branching factor of the copy
+     * @param fillFactor fraction of each node of the copy to fill
+     * @return the copy
+     */
+    @SuppressWarnings("unchecked")
+    public DoubleBPTree<V> copyToHeap(int branchingFactor, double fillFactor) {
+        int size = count(null, true, null, true);
+        double[] keys = new double[size];
+        List<V> values = new ArrayList<V>(size);
+        int leaf = findLeaf(Double.NEGATIVE_INFINITY, true);
+        while (leaf >= 0) {
+            int offset = leaf * PAGE_SIZE;
+            int count = pages.getInt(offset + 4);
+            for (int i = 0; i < count; i++) {
+                keys[values.size()] = pages.getDouble(offset + HEADER_SIZE + 8 * i);
+                values.add((V) rows[pages.getInt(offset + LEAF_ROWS + 4 * i)]);
+            }
+            leaf = pages.getInt(offset + 8);
+        }
+        return new DoubleBPTree<V>(branchingFactor, keys, values, fillFactor);
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#rangeSearch(java.lang.Object, java.lang.String)
+     */
+    @Override
+    public List<V> rangeSearch(Double key, String comparator) {
+        if (comparator == null || key == null)
+            return new ArrayList<V>();
+        if (comparator.contentEquals(">="))
+            return rangeSearch(key, true, null, true);
+        if (comparator.contentEquals("<="))
+            return rangeSearch(null, true, key, true);
+        if (comparator.contentEquals("=="))
+            return rangeSearch(key, true, key, true);
+        return new ArrayList<V>();
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#rangeSearch(java.lang.Object, boolean, java.lang.Object, boolean)
+     */
+    @Override
+    public List<V> rangeSearch(Double lowKey, boolean lowInclusive,
+        Double highKey, boolean highInclusive) {
+        List<V> returnList = new ArrayList<V>();
+        rangeSpliterator(lowKey, lowInclusive, highKey, highInclusive)
+            .forEachRemaining(returnList::add);
+        return returnList;
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#rangeSpliterator(java.lang.Object, boolean, java.lang.Object, boolean)
+     */
+    @Override
+    public Spliterator<V> rangeSpliterator(Double lowKey, boolean lowInclusive,
+        Double highKey, boolean highInclusive) {
+        //an open bound is the matching infinity, which every key passes
+        return new RangeSpliterator(
+            lowKey == null ? Double.NEGATIVE_INFINITY : lowKey.doubleValue(),
+            lowKey == null || lowInclusive,
+            highKey == null ? Double.POSITIVE_INFINITY : highKey.doubleValue(),
+            highKey == null || highInclusive);
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#count(java.lang.Object, boolean, java.lang.Object, boolean)
+     */
+    @Override
+    public int count(Double lowKey, boolean lowInclusive,
+        Double highKey, boolean highInclusive) {
+        double low = lowKey == null ? Double.NEGATIVE_INFINITY : lowKey.doubleValue();
+        double high = highKey == null ? Double.POSITIVE_INFINITY : highKey.doubleValue();
+        lowInclusive = lowKey == null || lowInclusive;
+        highInclusive = highKey == null || highInclusive;
+        if (isEmptyRange(low, lowInclusive, high, highInclusive))
+            return 0;
+        //entries up to the upper bound minus the entries below the lower bound
+        return rank(rootPage, high, !highInclusive) - rank(rootPage, low, lowInclusive);
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#sum(java.lang.Object, boolean, java.lang.Object, boolean)
+     */
+    @Override
+    public double sum(Double lowKey, boolean lowInclusive,
+        Double highKey, boolean highInclusive) {
+        double low = lowKey == null ? Double.NEGATIVE_INFINITY : lowKey.doubleValue();
+        double high = highKey == null ? Double.POSITIVE_INFINITY : highKey.doubleValue();
+        lowInclusive = lowKey == null || lowInclusive;
+        highInclusive = highKey == null || highInclusive;
+        if (isEmptyRange(low, lowInclusive, high, highInclusive))
+            return 0;
+        return sum(rootPage, low, lowInclusive, high, highInclusive);
+    }
+
+
+    /**
+     * Checks whether no key can lie between the two bounds
+     *
+     * @param lowKey lower bound
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @param highKey upper bound
+     * @param highInclusive true if keys equal to highKey are included
+     * @return true if the range is inverted or empty
+     */
+    private static boolean isEmptyRange(double lowKey, boolean lowInclusive,
+        double highKey, boolean highInclusive) {
+        int compareValue = Double.compare(lowKey, highKey);
+        return compareValue > 0 ||
+            (compareValue == 0 && !(lowInclusive && highInclusive));
+    }
+
+
+    /**
+     * Gets the index of the first key of a page that lies above the
+     * given lower bound, even among duplicate keys
+     *
+     * @param offset offset of the page
+     * @param count number of keys of the page
+     * @param lowKey lower bound
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @return index of the first key within the bound, or count if none
+     */
+    private int firstSlot(int offset, int count, double lowKey, boolean lowInclusive) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int compareValue = Double.compare(
+                pages.getDouble(offset + HEADER_SIZE + 8 * mid), lowKey);
+            if (compareValue < 0 || (compareValue == 0 && !lowInclusive)) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * Gets the leaf page holding the first key that lies above the
+     * given lower bound
+     *
+     * @param lowKey lower bound
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @return page of the leaf
+     */
+    private int findLeaf(double lowKey, boolean lowInclusive) {
+        int page = rootPage;
+        int offset = page * PAGE_SIZE;
+        //duplicates of lowKey may sit left of an equal separator, so
+        //descend to the child left of the first separator in the range
+        while (pages.getInt(offset) == INTERNAL) {
+            int childLocation = firstSlot(offset, pages.getInt(offset + 4),
+                lowKey, lowInclusive);
+            page = pages.getInt(offset + CHILD_PAGES + 4 * childLocation);
+            offset = page * PAGE_SIZE;
+        }
+        return page;
+    }
+
+
+    /**
+     * Counts the entries of a subtree that come before the first key
+     * lying above the given lower bound
+     *
+     * @param page root page of the subtree
+     * @param lowKey lower bound
+     * @param lowInclusive true if keys equal to lowKey lie above the bound
+     * @return number of entries below the bound
+     */
+    private int rank(int page, double lowKey, boolean lowInclusive) {
+        int rank = 0;
+        int offset = page * PAGE_SIZE;
+        while (pages.getInt(offset) == INTERNAL) {
+            //every child left of the one findLeaf descends to lies below the bound
+            int childLocation = firstSlot(offset, pages.getInt(offset + 4),
+                lowKey, lowInclusive);
+            for (int i = 0; i < childLocation; i++) {
+                rank += pages.getInt(offset + CHILD_COUNTS + 4 * i);
+            }
+            offset = pages.getInt(offset + CHILD_PAGES + 4 * childLocation) * PAGE_SIZE;
+        }
+        return rank + firstSlot(offset, pages.getInt(offset + 4), lowKey, lowInclusive);
+    }
+
+
+    /**
+     * Adds up the keys of a subtree that lie between the two bounds
+     *
+     * @param page root page of the subtree
+     * @param lowKey lower bound
+     * @param lowInclusive true if keys equal to lowKey are included
+     * @param highKey upper bound
+     * @param highInclusive true if keys equal to highKey are included
+     * @return sum of the keys in the range
+     */
+    private double sum(int page, double lowKey, boolean lowInclusive,
+        double highKey, boolean highInclusive) {
+        int offset = page * PAGE_SIZE;
+        int count = pages.getInt(offset + 4);
+        int first = firstSlot(offset, count, lowKey, lowInclusive);
+        int last = firstSlot(offset, count, highKey, !highInclusive);
+        if (pages.getInt(offset) == LEAF) {
+            double sum = 0;
+            for (int i = first; i < last; i++) {
+                sum += pages.getDouble(offset + HEADER_SIZE + 8 * i);
+            }
+            return sum;
+        }
+        //children strictly between the ones holding the two bounds lie
+        //wholly in the range, so only the two boundary children are entered
+        if (first == last)
+            return sum(childPage(offset, first), lowKey, lowInclusive, highKey, highInclusive);
+        double sum = sum(childPage(offset, first), lowKey, lowInclusive,
+            Double.POSITIVE_INFINITY, true);
+        for (int i = first + 1; i < last; i++) {
+            sum += pages.getDouble(offset + CHILD_SUMS + 8 * i);
+        }
+        return sum + sum(childPage(offset, last), Double.NEGATIVE_INFINITY, true,
+            highKey, highInclusive);
+    }
+
+
+    /**
+     * Gets the page of a child of an internal page
+     *
+     * @param offset offset of the internal page
+     * @param childLocation index of the child
+     * @return page of the child
+     */
+    private int childPage(int offset, int childLocation) {
+        return pages.getInt(offset + CHILD_PAGES + 4 * childLocation);
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        List<Integer> level = new ArrayList<Integer>();
+        level.add(rootPage);
+        while (!level.isEmpty()) {
+            List<Integer> nextLevel = new ArrayList<Integer>();
+            for (int i = 0; i < level.size(); i++) {
+                int offset = level.get(i) * PAGE_SIZE;
+                boolean internal = pages.getInt(offset) == INTERNAL;
+                int count = pages.getInt(offset + 4);
+                sb.append(i > 0 ? ", [" : "[");
+                for (int j = 0; j < count; j++) {
+                    if (j > 0)
+                        sb.append(", ");
+                    sb.append(pages.getDouble(offset + HEADER_SIZE + 8 * j));
+                }
+                sb.append(']');
+                for (int j = 0; internal && j <= count; j++) {
+                    nextLevel.add(childPage(offset, j));
+                }
+            }
+            sb.append('\n');
+            level = nextLevel;
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * This class walks the leaf pages between two bounds one value at
+     * a time. Splitting is inherited from AbstractSpliterator, which
+     * hands batches of values to the new spliterator.
+     */
+    private class RangeSpliterator extends Spliterators.AbstractSpliterator<V> {
+
+        // Offset of the current leaf page, -1 once exhausted, and the next slot
+        int offset;
+        int slot;
+
+        // Upper bound of the range
+        double highKey;
+        boolean highInclusive;
+
+        /**
+         * Package constructor, descends to the first value in the range
+         *
+         * @param lowKey lower bound
+         * @param lowInclusive true if keys equal to lowKey are included
+         * @param highKey upper bound
+         * @param highInclusive true if keys equal to highKey are included
+         */
+        RangeSpliterator(double lowKey, boolean lowInclusive,
+            double highKey, boolean highInclusive) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED);
+            this.highKey = highKey;
+            this.highInclusive = highInclusive;
+            this.offset = -1;
+            //an inverted or empty range cannot match anything
+            if (!isEmptyRange(lowKey, lowInclusive, highKey, highInclusive)) {
+                offset = findLeaf(lowKey, lowInclusive) * PAGE_SIZE;
+                slot = firstSlot(offset, pages.getInt(offset + 4), lowKey, lowInclusive);
+            }
+        }
+
+        /**
+         * (non-Javadoc)
+         * @see java.util.Spliterator#tryAdvance(java.util.function.Consumer)
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super V> action) {
+            //skip to the next leaf at the end of this one
+            while (offset >= 0 && slot == pages.getInt(offset + 4)) {
+                int next = pages.getInt(offset + 8);
+                offset = next < 0 ? -1 : next * PAGE_SIZE;
+                slot = 0;
+            }
+            if (offset < 0)
+                return false;
+            int compareValue = Double.compare(
+                pages.getDouble(offset + HEADER_SIZE + 8 * slot), highKey);
+            if (compareValue > 0 || (compareValue == 0 && !highInclusive)) {
+                offset = -1;
+                return false;
+            }
+            action.accept((V) rows[pages.getInt(offset + LEAF_ROWS + 4 * slot++)]);
+            return true;
+        }
+
+    } // End of class RangeSpliterator
+
+} // End of class MappedBPTree
@@ -0,0 +1,153 @@
+package application;
+
+/**
+ * Filename:   application.MealSummary.java
+ * Project:    Food Query
+ * Authors:    Amanda Sarsha, Tanner Bart, Xuefeng Xu, David Berman
+ *
+ * Running totals of every nutrient over a group of food items, kept up
+ * to date in O(1) as food items are added and removed, so a meal is
+ * analyzed without going over its food items again.
+ *
+ * Each total is a compensated sum: a second double keeps the low-order
+ * bits lost when a value is added to a much larger total, and is added
+ * back when the total is read (Kahan-Babuska summation). Removing a food
+ * item adds its values negated, so adding and removing the same food
+ * items many times does not let rounding errors build up.
+ *
+ * NaN and infinite values are counted instead of added, and a total is
+ * worked out from the counts while any of them is in the group: NaN if
+ * there is a NaN or both infinities, otherwise the infinity. Adding an
+ * infinity to the sum would leave it NaN or infinite for good once the
+ * food item is removed again.
+ */
+public class MealSummary {
+
+    // Running sums and their compensations, by nutrient slot
+    private final double[] sums = new double[Nutrient.count()];
+    private final double[] compensations = new double[Nutrient.count()];
+
+    // Number of NaN, positive infinite and negative infinite values left
+    // out of each sum, by nutrient slot
+    private final int[] nanCounts = new int[Nutrient.count()];
+    private final int[] positiveInfinityCounts = new int[Nutrient.count()];
+    private final int[] negativeInfinityCounts = new int[Nutrient.count()];
+
+    // Number of food items in the group
+    private int count;
+
+
+    /**
+     * Adds the nutrient values of a food item to the totals
+     *
+     * @param food the food item
+     */
+    public void add(FoodItem food) {
+        for (int slot = 0; slot < sums.length; slot++) {
+            accumulate(slot, food.getNutrientValue(Nutrient.inSlot(slot)), 1);
+        }
+        count++;
+    }
+
+
+    /**
+     * Takes the nutrient values of a food item out of the totals
+     *
+     * @param food the food item, with the values it was added with
+     */
+    public void remove(FoodItem food) {
+        for (int slot = 0; slot < sums.length; slot++) {
+            accumulate(slot, food.getNutrientValue(Nutrient.inSlot(slot)), -1);
+        }
+        count--;
+    }
+
+
+    /**
+     * Replaces one nutrient value of a food item in the group
+     *
+     * @param nutrient the nutrient
+     * @param oldValue value the food item was added with
+     * @param newValue value it has now
+     */
+    public void update(Nutrient nutrient, double oldValue, double newValue) {
+        accumulate(nutrient.ordinal(), oldValue, -1);
+        accumulate(nutrient.ordinal(), newValue, 1);
+    }
+
+
+    /**
+     * Empties the group
+     */
+    public void clear() {
+        for (int slot = 0; slot < sums.length; slot++) {
+            sums[slot] = 0.0;
+            compensations[slot] = 0.0;
+            nanCounts[slot] = 0;
+            positiveInfinityCounts[slot] = 0;
+            negativeInfinityCounts[slot] = 0;
+        }
+        count = 0;
+    }
+
+
+    /**
+     * Gets the total of a nutrient over the group
+     *
+     * @param nutrient the nutrient
+     * @return sum of the nutrient's values, NaN if any of them is NaN
+     *         or both infinities are among them
+     */
+    public double getTotal(Nutrient nutrient) {
+        int slot = nutrient.ordinal();
+        boolean positive = positiveInfinityCounts[slot] > 0;
+        boolean negative = negativeInfinityCounts[slot] > 0;
+        if (nanCounts[slot] > 0 || (positive && negative)) return Double.NaN;
+        if (positive) return Double.POSITIVE_INFINITY;
+        if (negative) return Double.NEGATIVE_INFINITY;
+        return sums[slot] + compensations[slot];
+    }
+
+
+    /**
+     * Gets the number of food items in the group
+     *
+     * @return number of food items
+     */
+    public int getCount() {
+        return count;
+    }
+
+
+    /**
+     * Adds a value to a compensated sum or takes it out, counting NaN
+     * and infinite values instead
+     *
+     * @param slot slot of the nutrient
+     * @param value the value
+     * @param sign 1 to add the value, -1 to take it out
+     */
+    private void accumulate(int slot, double value, int sign) {
+        if (Double.isNaN(value)) {
+            nanCounts[slot] += sign;
+            return;
+        }
+        if (value == Double.POSITIVE_INFINITY) {
+            positiveInfinityCounts[slot] += sign;
+            return;
+        }
+        if (value == Double.NEGATIVE_INFINITY) {
+            negativeInfinityCounts[slot] += sign;
+            return;
+        }
+        value *= sign;
+        double sum = sums[slot] + value;
+        // the bits of the smaller operand that did not fit in sum
+        if (Math.abs(sums[slot]) >= Math.abs(value)) {
+            compensations[slot] += (sums[slot] - sum) + value;
+        } else {
+            compensations[slot] += (value - sum) + sums[slot];
+        }
+        sums[slot] = sum;
+    }
+}
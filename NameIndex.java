@@ -0,0 +1,300 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Filename:   application.NameIndex.java
+ * Project:    Food Query
+ * Authors:    Amanda Sarsha, Tanner Bart, Xuefeng Xu, David Berman
+ *
+ * A trigram index over the lowercased names of food items, answering
+ * case-insensitive substring searches without scanning every name.
+ *
+ * Every item gets a slot, numbered in the order the items were added,
+ * and every run of three characters of a name lists the slots of the
+ * names containing it. A search for a substring of three or more
+ * characters intersects the lists of its trigrams and checks only the
+ * slots left over, since a name holding every trigram of the substring
+ * need not hold the substring itself. Shorter substrings have no
+ * trigram and are matched against every name.
+ *
+ * Names are lowercased once, when their item is added. Every item's
+ * slot is kept by identity, so removing it only touches the lists of
+ * its own trigrams. Removed items leave an empty slot; the slots are renumbered once more than half of
+ * them are empty.
+ */
+public class NameIndex {
+
+    // Initial number of slots and of trigram table entries
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Items by slot, null for a removed item
+    private FoodItem[] items;
+
+    // Lowercased names by slot, null for a removed item
+    private String[] names;
+
+    // Slot of every item in the index, by identity
+    private IdentityHashMap<FoodItem, Integer> slotOf;
+
+    // Number of slots in use, including the empty ones
+    private int slots;
+
+    // Number of items in the index
+    private int size;
+
+    // Open addressing table of trigram keys and their slot lists
+    private long[] trigrams;
+    private SlotList[] slotLists;
+
+    // Number of trigrams in the table
+    private int trigramCount;
+
+
+    /**
+     * Ascending list of slots
+     */
+    private static class SlotList {
+
+        private int[] slots = new int[4];
+        private int size;
+
+        /**
+         * Adds a slot larger than every slot in the list; a slot just
+         * added is not added again
+         *
+         * @param slot the slot
+         */
+        private void append(int slot) {
+            if (size > 0 && slots[size - 1] == slot) return;
+            if (size == slots.length) slots = Arrays.copyOf(slots, size * 2);
+            slots[size++] = slot;
+        }
+
+        /**
+         * Removes a slot from the list
+         *
+         * @param slot the slot
+         */
+        private void remove(int slot) {
+            int i = Arrays.binarySearch(slots, 0, size, slot);
+            if (i < 0) return;
+            System.arraycopy(slots, i + 1, slots, i, size - i - 1);
+            size--;
+        }
+    }
+
+
+    /**
+     * Constructor indexing the given items
+     *
+     * @param items the food items, in the order searches return them
+     */
+    public NameIndex(List<FoodItem> items) {
+        int capacity = Math.max(INITIAL_CAPACITY, items.size());
+        this.items = new FoodItem[capacity];
+        names = new String[capacity];
+        slotOf = new IdentityHashMap<FoodItem, Integer>(capacity);
+        trigrams = new long[INITIAL_CAPACITY];
+        slotLists = new SlotList[INITIAL_CAPACITY];
+        for (FoodItem item : items) {
+            add(item);
+        }
+    }
+
+
+    /**
+     * Adds an item after every item in the index
+     *
+     * @param item the food item
+     */
+    public void add(FoodItem item) {
+        if (slots == items.length) {
+            items = Arrays.copyOf(items, slots * 2);
+            names = Arrays.copyOf(names, slots * 2);
+        }
+        int slot = slots++;
+        String name = item.getName().toLowerCase();
+        items[slot] = item;
+        names[slot] = name;
+        slotOf.put(item, slot);
+        size++;
+        for (int i = 0; i + 3 <= name.length(); i++) {
+            slotList(trigram(name, i), true).append(slot);
+        }
+    }
+
+
+    /**
+     * Removes an item from the index
+     *
+     * @param item the food item, matched by identity
+     * @return true if the item was in the index
+     */
+    public boolean remove(FoodItem item) {
+        Integer found = slotOf.remove(item);
+        if (found == null) return false;
+        int slot = found;
+        String name = names[slot];
+        for (int i = 0; i + 3 <= name.length(); i++) {
+            slotList(trigram(name, i), false).remove(slot);
+        }
+        items[slot] = null;
+        names[slot] = null;
+        size--;
+        if (size < slots / 2) renumber();
+        return true;
+    }
+
+
+    /**
+     * Gets the items whose name contains the substring, ignoring case
+     *
+     * @param substring substring to be searched
+     * @return matching food items in the order they were added
+     */
+    public List<FoodItem> search(String substring) {
+        String query = substring.toLowerCase();
+        List<FoodItem> result = new ArrayList<FoodItem>();
+        if (query.length() < 3) {
+            // no trigram to look up, every name is checked
+            for (int slot = 0; slot < slots; slot++) {
+                if (names[slot] != null && names[slot].contains(query)) result.add(items[slot]);
+            }
+            return result;
+        }
+        // start from the shortest list, each further list only removes slots
+        List<SlotList> lists = new ArrayList<SlotList>();
+        for (int i = 0; i + 3 <= query.length(); i++) {
+            SlotList list = slotList(trigram(query, i), false);
+            if (list == null || list.size == 0) return result;
+            lists.add(list);
+        }
+        lists.sort((a, b) -> Integer.compare(a.size, b.size));
+        int[] candidates = Arrays.copyOf(lists.get(0).slots, lists.get(0).size);
+        int count = candidates.length;
+        for (int l = 1; l < lists.size() && count > 0; l++) {
+            SlotList list = lists.get(l);
+            int kept = 0;
+            int from = 0;
+            for (int c = 0; c < count && from < list.size; c++) {
+                int i = Arrays.binarySearch(list.slots, from, list.size, candidates[c]);
+                if (i >= 0) {
+                    candidates[kept++] = candidates[c];
+                    from = i + 1;
+                } else {
+                    from = -i - 1;
+                }
+            }
+            count = kept;
+        }
+        for (int c = 0; c < count; c++) {
+            if (names[candidates[c]].contains(query)) result.add(items[candidates[c]]);
+        }
+        return result;
+    }
+
+
+    /**
+     * Gets the number of items in the index
+     *
+     * @return number of items
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Packs the three characters starting at i into a key
+     *
+     * @param s the string
+     * @param i index of the first character
+     * @return the trigram key
+     */
+    private static long trigram(String s, int i) {
+        return (long) s.charAt(i) << 32 | (long) s.charAt(i + 1) << 16 | s.charAt(i + 2);
+    }
+
+
+    /**
+     * Finds the slot list of a trigram
+     *
+     * @param key the trigram key
+     * @param create true to add an empty list if the trigram has none
+     * @return the slot list, or null if there is none and create is false
+     */
+    private SlotList slotList(long key, boolean create) {
+        int mask = trigrams.length - 1;
+        int i = hash(key) & mask;
+        while (slotLists[i] != null) {
+            if (trigrams[i] == key) return slotLists[i];
+            i = (i + 1) & mask;
+        }
+        if (!create) return null;
+        if (2 * (trigramCount + 1) > trigrams.length) {
+            grow();
+            return slotList(key, true);
+        }
+        trigrams[i] = key;
+        slotLists[i] = new SlotList();
+        trigramCount++;
+        return slotLists[i];
+    }
+
+
+    /**
+     * Doubles the trigram table
+     */
+    private void grow() {
+        long[] oldTrigrams = trigrams;
+        SlotList[] oldSlotLists = slotLists;
+        trigrams = new long[oldTrigrams.length * 2];
+        slotLists = new SlotList[oldSlotLists.length * 2];
+        int mask = trigrams.length - 1;
+        for (int j = 0; j < oldTrigrams.length; j++) {
+            if (oldSlotLists[j] == null) continue;
+            int i = hash(oldTrigrams[j]) & mask;
+            while (slotLists[i] != null)
+                i = (i + 1) & mask;
+            trigrams[i] = oldTrigrams[j];
+            slotLists[i] = oldSlotLists[j];
+        }
+    }
+
+
+    /**
+     * Spreads the bits of a trigram key over an int
+     *
+     * @param key the trigram key
+     * @return the hash
+     */
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+
+    /**
+     * Rebuilds the index without the empty slots, keeping the order
+     */
+    private void renumber() {
+        List<FoodItem> live = new ArrayList<FoodItem>(size);
+        for (int slot = 0; slot < slots; slot++) {
+            if (items[slot] != null) live.add(items[slot]);
+        }
+        NameIndex rebuilt = new NameIndex(live);
+        items = rebuilt.items;
+        names = rebuilt.names;
+        slotOf = rebuilt.slotOf;
+        slots = rebuilt.slots;
+        size = rebuilt.size;
+        trigrams = rebuilt.trigrams;
+        slotLists = rebuilt.slotLists;
+        trigramCount = rebuilt.trigramCount;
+    }
+
+}
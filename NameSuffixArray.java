@@ -0,0 +1,298 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Filename:   application.NameSuffixArray.java
+ * Project:    Food Query
+ * Authors:    Amanda Sarsha, Tanner Bart, Xuefeng Xu, David Berman
+ *
+ * A suffix array over the lowercased names of food items, answering
+ * case-insensitive substring and prefix searches with results sorted
+ * by name.
+ *
+ * The items are sorted by lowercased name, items with equal names
+ * keeping their order, and their names are joined into one text, each
+ * ended by a separator. The suffix array lists every suffix of a name
+ * in sorted order, a suffix ending at its separator. Every suffix
+ * starting with a substring lies in one run of the array, found with a
+ * binary search in O(m log N) for a substring of m characters; the LCP
+ * array, holding the length of the common prefix of each suffix and
+ * the one before it, then gives the end of the run without comparing
+ * any more characters. The items of the run are returned by their
+ * position in name order, so no sorting by name is needed.
+ *
+ * Prefix searches use the sorted names directly.
+ *
+ * The array cannot be changed; it is rebuilt when the items change.
+ */
+public class NameSuffixArray {
+
+    // Character ending every name in the text
+    private static final char SEPARATOR = '\u0000';
+
+    // Ranges at most this long are sorted by insertion sort
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    // Items sorted by lowercased name
+    private final FoodItem[] items;
+
+    // Lowercased names of the items, in the same order
+    private final String[] names;
+
+    // Lowercased names, each followed by SEPARATOR
+    private final char[] text;
+
+    // Position of every name in the text
+    private final int[] starts;
+
+    // Start of every suffix of the names, in sorted order
+    private final int[] suffixes;
+
+    // Length of the common prefix of each suffix and the one before it
+    private final int[] lcp;
+
+
+    /**
+     * Constructor indexing the given items
+     *
+     * @param foodItems the food items
+     */
+    public NameSuffixArray(List<FoodItem> foodItems) {
+        int n = foodItems.size();
+        String[] lowerNames = new String[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            lowerNames[i] = foodItems.get(i).getName().toLowerCase();
+            order[i] = i;
+        }
+        // a stable sort keeps items with equal names in list order
+        Arrays.sort(order, (a, b) -> lowerNames[a].compareTo(lowerNames[b]));
+        items = new FoodItem[n];
+        names = new String[n];
+        starts = new int[n];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            items[i] = foodItems.get(order[i]);
+            names[i] = lowerNames[order[i]];
+            starts[i] = length;
+            length += names[i].length() + 1;
+        }
+        text = new char[length];
+        suffixes = new int[length - n];
+        int suffix = 0;
+        for (int i = 0; i < n; i++) {
+            names[i].getChars(0, names[i].length(), text, starts[i]);
+            text[starts[i] + names[i].length()] = SEPARATOR;
+            for (int p = starts[i]; p < starts[i] + names[i].length(); p++) {
+                suffixes[suffix++] = p;
+            }
+        }
+        sort(0, suffixes.length, 0);
+        lcp = new int[suffixes.length];
+        for (int i = 1; i < suffixes.length; i++) {
+            lcp[i] = commonPrefix(suffixes[i - 1], suffixes[i]);
+        }
+    }
+
+
+    /**
+     * Gets the items whose name contains the substring, ignoring case
+     *
+     * @param substring substring to be searched
+     * @return matching food items sorted by lowercased name
+     */
+    public List<FoodItem> search(String substring) {
+        String query = substring.toLowerCase();
+        if (query.isEmpty()) return new ArrayList<FoodItem>(Arrays.asList(items));
+        // first suffix not smaller than the query
+        int low = 0;
+        int high = suffixes.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(suffixes[middle], query) < 0) low = middle + 1;
+            else high = middle;
+        }
+        List<FoodItem> result = new ArrayList<FoodItem>();
+        if (low == suffixes.length || compare(suffixes[low], query) != 0) return result;
+        // the suffixes after it share at least the query while lcp allows
+        int end = low + 1;
+        while (end < suffixes.length && lcp[end] >= query.length())
+            end++;
+        int[] owners = new int[end - low];
+        for (int i = low; i < end; i++) {
+            owners[i - low] = owner(suffixes[i]);
+        }
+        Arrays.sort(owners);
+        for (int i = 0; i < owners.length; i++) {
+            if (i == 0 || owners[i] != owners[i - 1]) result.add(items[owners[i]]);
+        }
+        return result;
+    }
+
+
+    /**
+     * Gets the items whose name starts with the prefix, ignoring case
+     *
+     * @param prefix prefix to be searched
+     * @param limit most items to return
+     * @return matching food items sorted by lowercased name
+     */
+    public List<FoodItem> startsWith(String prefix, int limit) {
+        String query = prefix.toLowerCase();
+        int low = 0;
+        int high = names.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (names[middle].compareTo(query) < 0) low = middle + 1;
+            else high = middle;
+        }
+        List<FoodItem> result = new ArrayList<FoodItem>();
+        for (int i = low; i < names.length && result.size() < limit
+            && names[i].startsWith(query); i++) {
+            result.add(items[i]);
+        }
+        return result;
+    }
+
+
+    /**
+     * Gets the number of items in the array
+     *
+     * @return number of items
+     */
+    public int size() {
+        return items.length;
+    }
+
+
+    /**
+     * Compares the suffix starting at a position with a query, looking
+     * at no more characters of the suffix than the query has
+     *
+     * @param suffix position of the suffix in the text
+     * @param query the query
+     * @return negative, zero or positive as the suffix is smaller than,
+     *         starts with or is larger than the query
+     */
+    private int compare(int suffix, String query) {
+        for (int i = 0; i < query.length(); i++) {
+            char c = text[suffix + i];
+            if (c == SEPARATOR) return -1;
+            if (c != query.charAt(i)) return c < query.charAt(i) ? -1 : 1;
+        }
+        return 0;
+    }
+
+
+    /**
+     * Gets the length of the common prefix of two suffixes
+     *
+     * @param a position of one suffix
+     * @param b position of the other suffix
+     * @return number of equal characters before the first difference or separator
+     */
+    private int commonPrefix(int a, int b) {
+        int i = 0;
+        while (text[a + i] == text[b + i] && text[a + i] != SEPARATOR)
+            i++;
+        return i;
+    }
+
+
+    /**
+     * Finds the name a text position belongs to
+     *
+     * @param position position in the text
+     * @return index of the name in sorted order
+     */
+    private int owner(int position) {
+        int i = Arrays.binarySearch(starts, position);
+        return i >= 0 ? i : -i - 2;
+    }
+
+
+    /**
+     * Gets a character of a suffix for sorting, the separator being
+     * smaller than every character
+     *
+     * @param suffix position of the suffix
+     * @param depth index of the character in the suffix
+     * @return the character, or -1 at the separator
+     */
+    private int charAt(int suffix, int depth) {
+        char c = text[suffix + depth];
+        return c == SEPARATOR ? -1 : c;
+    }
+
+
+    /**
+     * Sorts suffixes[from, to), which share their first depth
+     * characters, by three-way radix quicksort
+     *
+     * @param from first index of the range
+     * @param to index after the range
+     * @param depth number of characters the suffixes are known to share
+     */
+    private void sort(int from, int to, int depth) {
+        while (to - from > INSERTION_SORT_THRESHOLD) {
+            int pivot = charAt(suffixes[(from + to) >>> 1], depth);
+            // [from, lt) < pivot, [lt, i) == pivot, (gt, to) > pivot
+            int lt = from;
+            int gt = to - 1;
+            int i = from;
+            while (i <= gt) {
+                int c = charAt(suffixes[i], depth);
+                if (c < pivot) swap(lt++, i++);
+                else if (c > pivot) swap(i, gt--);
+                else i++;
+            }
+            sort(from, lt, depth);
+            sort(gt + 1, to, depth);
+            // suffixes ending here are equal, the rest differ further on
+            if (pivot < 0) return;
+            from = lt;
+            to = gt + 1;
+            depth++;
+        }
+        for (int i = from + 1; i < to; i++) {
+            for (int j = i; j > from && compareSuffixes(suffixes[j], suffixes[j - 1], depth) < 0; j--)
+                swap(j, j - 1);
+        }
+    }
+
+
+    /**
+     * Compares two suffixes that share their first depth characters
+     *
+     * @param a position of one suffix
+     * @param b position of the other suffix
+     * @param depth number of characters the suffixes are known to share
+     * @return negative, zero or positive as a is smaller than, equal to
+     *         or larger than b
+     */
+    private int compareSuffixes(int a, int b, int depth) {
+        while (true) {
+            int ca = charAt(a, depth);
+            int cb = charAt(b, depth);
+            if (ca != cb || ca < 0) return ca - cb;
+            depth++;
+        }
+    }
+
+
+    /**
+     * Swaps two entries of the suffix array
+     *
+     * @param i index of one entry
+     * @param j index of the other entry
+     */
+    private void swap(int i, int j) {
+        int t = suffixes[i];
+        suffixes[i] = suffixes[j];
+        suffixes[j] = t;
+    }
+
+}
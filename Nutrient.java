@@ -0,0 +1,79 @@
+package application;
+
+/**
+ * Filename:   application.Nutrient.java
+ * Project:    Food Query
+ * Authors:    Amanda Sarsha, Tanner Bart, Xuefeng Xu, David Berman
+ *
+ * The nutrients every food item has, in the order of the food item
+ * file. A food item stores their values in a double[] with one slot
+ * per nutrient, the slot being the nutrient's ordinal.
+ */
+public enum Nutrient {
+    CALORIES("calories"),
+    FAT("fat"),
+    CARBOHYDRATE("carbohydrate"),
+    FIBER("fiber"),
+    PROTEIN("protein");
+
+    // Every nutrient, shared so lookups do not copy values()
+    private static final Nutrient[] ALL = values();
+
+    // Name of the nutrient as food items and rules use it
+    private final String key;
+
+
+    /**
+     * Constructor
+     *
+     * @param key lowercase name of the nutrient
+     */
+    Nutrient(String key) {
+        this.key = key;
+    }
+
+
+    /**
+     * Gets the name of the nutrient
+     *
+     * @return lowercase name of the nutrient
+     */
+    public String getKey() {
+        return key;
+    }
+
+
+    /**
+     * Finds the nutrient with a name
+     *
+     * @param key lowercase name of the nutrient
+     * @return the nutrient, or null if no nutrient has that name
+     */
+    public static Nutrient fromKey(String key) {
+        for (Nutrient nutrient : ALL) {
+            if (nutrient.key.equals(key)) return nutrient;
+        }
+        return null;
+    }
+
+
+    /**
+     * Gets the nutrient in a slot
+     *
+     * @param slot slot of the nutrient
+     * @return the nutrient whose ordinal is slot
+     */
+    static Nutrient inSlot(int slot) {
+        return ALL[slot];
+    }
+
+
+    /**
+     * Gets the number of nutrients
+     *
+     * @return number of slots a food item needs
+     */
+    static int count() {
+        return ALL.length;
+    }
+}
@@ -0,0 +1,488 @@
+package application;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Filename:   application.RowBitmap.java
+ * Project:    Food Query
+ * Authors:    Amanda Sarsha, Tanner Bart, Xuefeng Xu, David Berman
+ *
+ * An immutable compressed set of food item row ids, split the way a
+ * Roaring bitmap is: row ids sharing their upper 16 bits go into one
+ * container, kept as a sorted array of the lower 16 bits while it holds
+ * at most ARRAY_LIMIT of them and as a bitmap of 2^16 bits once it
+ * holds more. Sparse results stay small, dense results take one bit per
+ * row, and and, or and andNot work container by container, on whole
+ * 64-bit words between bitmaps.
+ */
+public class RowBitmap {
+
+    // Most values an array container holds; at this size both kinds
+    // take 8 KB
+    private static final int ARRAY_LIMIT = 4096;
+
+    // Number of 64-bit words in a bitmap container
+    private static final int WORDS = 1 << 10;
+
+    // Bitmap with no rows
+    private static final RowBitmap EMPTY = new RowBitmap(new char[0], new Container[0], 0);
+
+    // Upper 16 bits of the row ids in each container, ascending
+    private final char[] keys;
+
+    // Containers in the order of their keys, none of them empty
+    private final Container[] containers;
+
+    // Number of containers
+    private final int size;
+
+
+    /**
+     * The lower 16 bits of the row ids sharing one key
+     */
+    private abstract static class Container {
+
+        /**
+         * Gets the number of values in the container
+         *
+         * @return number of values
+         */
+        abstract int cardinality();
+
+        /**
+         * Checks whether the container holds a value
+         *
+         * @param value lower 16 bits of a row id
+         * @return true if the value is in the container
+         */
+        abstract boolean contains(char value);
+
+        /**
+         * Passes every value, ascending, with the key added back
+         *
+         * @param high the key shifted into the upper 16 bits
+         * @param action action taking each row id
+         */
+        abstract void forEach(int high, IntConsumer action);
+
+        /**
+         * Gets the values as a bitmap
+         *
+         * @return words of a bitmap container
+         */
+        abstract long[] words();
+    }
+
+
+    /**
+     * Container keeping its values in a sorted array
+     */
+    private static class ArrayContainer extends Container {
+
+        private final char[] values;
+        private final int cardinality;
+
+        private ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int i = 0; i < cardinality; i++)
+                action.accept(high | values[i]);
+        }
+
+        @Override
+        long[] words() {
+            long[] words = new long[WORDS];
+            for (int i = 0; i < cardinality; i++)
+                words[values[i] >>> 6] |= 1L << values[i];
+            return words;
+        }
+    }
+
+
+    /**
+     * Container keeping its values as bits of 64-bit words
+     */
+    private static class BitmapContainer extends Container {
+
+        private final long[] words;
+        private final int cardinality;
+
+        private BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & 1L << value) != 0;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    action.accept(high | w << 6 | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        long[] words() {
+            return words;
+        }
+    }
+
+
+    /**
+     * Constructor taking the containers
+     *
+     * @param keys upper 16 bits of the row ids in each container
+     * @param containers containers in the order of their keys
+     * @param size number of containers in use
+     */
+    private RowBitmap(char[] keys, Container[] containers, int size) {
+        this.keys = keys;
+        this.containers = containers;
+        this.size = size;
+    }
+
+
+    /**
+     * Gets a bitmap with no rows
+     *
+     * @return the empty bitmap
+     */
+    public static RowBitmap empty() {
+        return EMPTY;
+    }
+
+
+    /**
+     * Builds a bitmap from row ids in any order
+     *
+     * @param rows array of row ids, all at least 0; it is sorted in place
+     * @param count number of row ids in the array
+     * @return bitmap of the row ids
+     */
+    public static RowBitmap of(int[] rows, int count) {
+        Arrays.sort(rows, 0, count);
+        char[] keys = new char[8];
+        Container[] containers = new Container[8];
+        int size = 0;
+        int start = 0;
+        while (start < count) {
+            int key = rows[start] >>> 16;
+            int end = start;
+            while (end < count && rows[end] >>> 16 == key)
+                end++;
+            char[] values = new char[end - start];
+            int cardinality = 0;
+            for (int i = start; i < end; i++) {
+                char value = (char) rows[i];
+                // repeated row ids are next to each other once sorted
+                if (cardinality == 0 || values[cardinality - 1] != value)
+                    values[cardinality++] = value;
+            }
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                containers = Arrays.copyOf(containers, size * 2);
+            }
+            keys[size] = (char) key;
+            containers[size++] = cardinality > ARRAY_LIMIT
+                ? new BitmapContainer(new ArrayContainer(values, cardinality).words(), cardinality)
+                : new ArrayContainer(values, cardinality);
+            start = end;
+        }
+        return new RowBitmap(keys, containers, size);
+    }
+
+
+    /**
+     * Checks whether the bitmap holds a row id
+     *
+     * @param row the row id
+     * @return true if the row id is in the bitmap
+     */
+    public boolean contains(int row) {
+        if (row < 0) return false;
+        int i = Arrays.binarySearch(keys, 0, size, (char) (row >>> 16));
+        return i >= 0 && containers[i].contains((char) row);
+    }
+
+
+    /**
+     * Gets the number of row ids in the bitmap
+     *
+     * @return number of row ids
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++)
+            cardinality += containers[i].cardinality();
+        return cardinality;
+    }
+
+
+    /**
+     * Checks whether the bitmap holds no row id
+     *
+     * @return true if the bitmap is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+
+    /**
+     * Passes every row id to an action in ascending order
+     *
+     * @param action action taking each row id
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++)
+            containers[i].forEach(keys[i] << 16, action);
+    }
+
+
+    /**
+     * Gets the row ids in both bitmaps
+     *
+     * @param other the other bitmap
+     * @return bitmap of the intersection
+     */
+    public RowBitmap and(RowBitmap other) {
+        char[] resultKeys = new char[Math.min(size, other.size)];
+        Container[] result = new Container[resultKeys.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container c = and(containers[i], other.containers[j]);
+                if (c != null) {
+                    resultKeys[count] = keys[i];
+                    result[count++] = c;
+                }
+                i++;
+                j++;
+            }
+        }
+        return new RowBitmap(resultKeys, result, count);
+    }
+
+
+    /**
+     * Gets the row ids in either bitmap
+     *
+     * @param other the other bitmap
+     * @return bitmap of the union
+     */
+    public RowBitmap or(RowBitmap other) {
+        char[] resultKeys = new char[size + other.size];
+        Container[] result = new Container[resultKeys.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                resultKeys[count] = keys[i];
+                result[count++] = containers[i++];
+            } else if (i == size || keys[i] > other.keys[j]) {
+                resultKeys[count] = other.keys[j];
+                result[count++] = other.containers[j++];
+            } else {
+                resultKeys[count] = keys[i];
+                result[count++] = or(containers[i++], other.containers[j++]);
+            }
+        }
+        return new RowBitmap(resultKeys, result, count);
+    }
+
+
+    /**
+     * Gets the row ids in this bitmap but not in the other
+     *
+     * @param other the other bitmap
+     * @return bitmap of the difference
+     */
+    public RowBitmap andNot(RowBitmap other) {
+        char[] resultKeys = new char[size];
+        Container[] result = new Container[size];
+        int count = 0;
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i])
+                j++;
+            Container c = containers[i];
+            if (j < other.size && other.keys[j] == keys[i])
+                c = andNot(c, other.containers[j]);
+            if (c != null) {
+                resultKeys[count] = keys[i];
+                result[count++] = c;
+            }
+        }
+        return new RowBitmap(resultKeys, result, count);
+    }
+
+
+    /**
+     * Intersects two containers
+     *
+     * @param a one container
+     * @param b the other container
+     * @return the intersection, or null if it is empty
+     */
+    private static Container and(Container a, Container b) {
+        if (a instanceof ArrayContainer && b instanceof ArrayContainer) {
+            ArrayContainer x = (ArrayContainer) a;
+            ArrayContainer y = (ArrayContainer) b;
+            char[] values = new char[Math.min(x.cardinality, y.cardinality)];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < x.cardinality && j < y.cardinality) {
+                if (x.values[i] < y.values[j]) i++;
+                else if (x.values[i] > y.values[j]) j++;
+                else {
+                    values[count++] = x.values[i];
+                    i++;
+                    j++;
+                }
+            }
+            return count == 0 ? null : new ArrayContainer(values, count);
+        }
+        if (a instanceof ArrayContainer || b instanceof ArrayContainer) {
+            // only the array's values can be in the result
+            ArrayContainer x = (ArrayContainer) (a instanceof ArrayContainer ? a : b);
+            Container y = x == a ? b : a;
+            char[] values = new char[x.cardinality];
+            int count = 0;
+            for (int i = 0; i < x.cardinality; i++) {
+                if (y.contains(x.values[i])) values[count++] = x.values[i];
+            }
+            return count == 0 ? null : new ArrayContainer(values, count);
+        }
+        long[] x = a.words();
+        long[] y = b.words();
+        long[] words = new long[WORDS];
+        for (int w = 0; w < WORDS; w++)
+            words[w] = x[w] & y[w];
+        return fromWords(words);
+    }
+
+
+    /**
+     * Unites two containers
+     *
+     * @param a one container
+     * @param b the other container
+     * @return the union
+     */
+    private static Container or(Container a, Container b) {
+        if (a instanceof ArrayContainer && b instanceof ArrayContainer
+            && a.cardinality() + b.cardinality() <= ARRAY_LIMIT) {
+            ArrayContainer x = (ArrayContainer) a;
+            ArrayContainer y = (ArrayContainer) b;
+            char[] values = new char[x.cardinality + y.cardinality];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < x.cardinality || j < y.cardinality) {
+                if (j == y.cardinality || (i < x.cardinality && x.values[i] < y.values[j]))
+                    values[count++] = x.values[i++];
+                else if (i == x.cardinality || x.values[i] > y.values[j])
+                    values[count++] = y.values[j++];
+                else {
+                    values[count++] = x.values[i++];
+                    j++;
+                }
+            }
+            return new ArrayContainer(values, count);
+        }
+        long[] x = a.words();
+        long[] y = b.words();
+        long[] words = new long[WORDS];
+        for (int w = 0; w < WORDS; w++)
+            words[w] = x[w] | y[w];
+        return fromWords(words);
+    }
+
+
+    /**
+     * Removes the values of one container from another
+     *
+     * @param a the container values are kept from
+     * @param b the container values are removed by
+     * @return the difference, or null if it is empty
+     */
+    private static Container andNot(Container a, Container b) {
+        if (a instanceof ArrayContainer) {
+            ArrayContainer x = (ArrayContainer) a;
+            char[] values = new char[x.cardinality];
+            int count = 0;
+            for (int i = 0; i < x.cardinality; i++) {
+                if (!b.contains(x.values[i])) values[count++] = x.values[i];
+            }
+            return count == 0 ? null : new ArrayContainer(values, count);
+        }
+        long[] x = a.words();
+        long[] y = b.words();
+        long[] words = new long[WORDS];
+        for (int w = 0; w < WORDS; w++)
+            words[w] = x[w] & ~y[w];
+        return fromWords(words);
+    }
+
+
+    /**
+     * Builds a container from bitmap words, as an array container if it
+     * holds few enough values
+     *
+     * @param words words of a bitmap
+     * @return the container, or null if no bit is set
+     */
+    private static Container fromWords(long[] words) {
+        int cardinality = 0;
+        for (int w = 0; w < WORDS; w++)
+            cardinality += Long.bitCount(words[w]);
+        if (cardinality == 0) return null;
+        if (cardinality > ARRAY_LIMIT) return new BitmapContainer(words, cardinality);
+        char[] values = new char[cardinality];
+        int count = 0;
+        for (int w = 0; w < WORDS; w++) {
+            long word = words[w];
+            while (word != 0) {
+                values[count++] = (char) (w << 6 | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return new ArrayContainer(values, count);
+    }
+
+}